@@ -51,6 +51,13 @@ import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 import com.nextgis.mobile.activity.SettingsActivity;
 import com.nextgis.mobile.fragment.SettingsFragment;
+import com.nextgis.mobile.util.EditStateJournal;
+import com.nextgis.mobile.util.FeatureLabelCache;
+import com.nextgis.mobile.util.GeometryMetricsStore;
+import com.nextgis.mobile.util.LayerConfigPrefetcher;
+import com.nextgis.mobile.util.MapHitTestIndex;
+import com.nextgis.mobile.util.StartupTracer;
+import com.nextgis.mobile.util.TrackRecordingMonitor;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -73,13 +80,30 @@ public class MainApplication extends GISApplication
     public static final String LAYER_B = "vector_b";
     public static final String LAYER_C = "vector_c";
     public static final String LAYER_TRACKS = "tracks";
+    public static final String EDIT_STATE_FILE = "edit_state.journal";
+
+    protected MapHitTestIndex mHitTestIndex;
+    protected GeometryMetricsStore mMetricsStore;
+    protected EditStateJournal mEditStateJournal;
+    protected FeatureLabelCache mLabelCache;
+    protected TrackRecordingMonitor mTrackMonitor;
+    protected LayerConfigPrefetcher mConfigPrefetcher;
 
     @Override
     public void onCreate() {
+        StartupTracer.beginLaunch(true);
+        long span = StartupTracer.begin("MainApplication.onCreate");
+
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        // warm up layer configs while the rest of the startup runs
+        mConfigPrefetcher = new LayerConfigPrefetcher(getMapFile()).start();
+
+        long update = StartupTracer.begin("updateFromOldVersion");
         updateFromOldVersion();
+        StartupTracer.end(update);
 
         super.onCreate();
+        StartupTracer.end(span);
     }
 
     private void updateFromOldVersion() {
@@ -121,28 +145,46 @@ public class MainApplication extends GISApplication
             return mMap;
         }
 
+        long span = StartupTracer.begin("MainApplication.getMap");
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        File defaultPath = getExternalFilesDir(SettingsConstants.KEY_PREF_MAP);
-        if (defaultPath == null) {
-            defaultPath = new File(getFilesDir(), SettingsConstants.KEY_PREF_MAP);
-        }
-
-        String mapPath = mSharedPreferences.getString(SettingsConstants.KEY_PREF_MAP_PATH, defaultPath.getPath());
         String mapName = mSharedPreferences.getString(SettingsConstantsUI.KEY_PREF_MAP_NAME, "default");
 
-        File mapFullPath = new File(mapPath, mapName + MAP_EXT);
-
         final Bitmap bkBitmap = getMapBackground();
-        mMap = new MapDrawable(bkBitmap, this, mapFullPath, new LayerFactoryUI());
+        mMap = new MapDrawable(bkBitmap, this, getMapFile(), new LayerFactoryUI());
         mMap.setName(mapName);
+
+        long load = StartupTracer.begin("MapDrawable.load");
         mMap.load();
+        StartupTracer.end(load);
+
+        if (null != mConfigPrefetcher) {
+            mConfigPrefetcher.finish();
+            mConfigPrefetcher = null;
+        }
 
+        long tracks = StartupTracer.begin("checkTracksLayerExist");
         checkTracksLayerExist();
+        StartupTracer.end(tracks);
 
+        StartupTracer.end(span);
         return mMap;
     }
 
 
+    protected File getMapFile()
+    {
+        File defaultPath = getExternalFilesDir(SettingsConstants.KEY_PREF_MAP);
+        if (defaultPath == null) {
+            defaultPath = new File(getFilesDir(), SettingsConstants.KEY_PREF_MAP);
+        }
+
+        String mapPath = mSharedPreferences.getString(SettingsConstants.KEY_PREF_MAP_PATH, defaultPath.getPath());
+        String mapName = mSharedPreferences.getString(SettingsConstantsUI.KEY_PREF_MAP_NAME, "default");
+
+        return new File(mapPath, mapName + MAP_EXT);
+    }
+
+
     protected void checkTracksLayerExist()
     {
         List<ILayer> tracks = new ArrayList<>();
@@ -159,6 +201,51 @@ public class MainApplication extends GISApplication
     }
 
 
+    public synchronized MapHitTestIndex getHitTestIndex()
+    {
+        if (null == mHitTestIndex)
+            mHitTestIndex = new MapHitTestIndex(this, getAuthority());
+
+        return mHitTestIndex;
+    }
+
+
+    public synchronized FeatureLabelCache getLabelCache()
+    {
+        if (null == mLabelCache)
+            mLabelCache = new FeatureLabelCache(this, getAuthority());
+
+        return mLabelCache;
+    }
+
+
+    public synchronized TrackRecordingMonitor getTrackMonitor()
+    {
+        if (null == mTrackMonitor)
+            mTrackMonitor = new TrackRecordingMonitor(this);
+
+        return mTrackMonitor;
+    }
+
+
+    public synchronized GeometryMetricsStore getMetricsStore()
+    {
+        if (null == mMetricsStore)
+            mMetricsStore = new GeometryMetricsStore(this);
+
+        return mMetricsStore;
+    }
+
+
+    public synchronized EditStateJournal getEditStateJournal()
+    {
+        if (null == mEditStateJournal)
+            mEditStateJournal = new EditStateJournal(new File(getFilesDir(), EDIT_STATE_FILE));
+
+        return mEditStateJournal;
+    }
+
+
     @Override
     public String getAuthority()
     {
@@ -47,6 +47,7 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.view.animation.Animation;
 import android.view.animation.RotateAnimation;
 import android.widget.ImageView;
@@ -74,6 +75,8 @@ import com.nextgis.mobile.R;
 import com.nextgis.mobile.fragment.LayersFragment;
 import com.nextgis.mobile.fragment.MapFragment;
 import com.nextgis.mobile.util.SettingsConstants;
+import com.nextgis.mobile.util.StartupTracer;
+import com.nextgis.mobile.util.TrackingState;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -83,12 +86,10 @@ import java.util.GregorianCalendar;
 import static com.nextgis.maplib.util.Constants.TAG;
 import static com.nextgis.maplib.util.GeoConstants.CRS_WEB_MERCATOR;
 import static com.nextgis.maplib.util.GeoConstants.CRS_WGS84;
-import static com.nextgis.maplibui.service.TrackerService.hasUnfinishedTracks;
-import static com.nextgis.maplibui.service.TrackerService.isTrackerServiceRunning;
 
 
 public class MainActivity extends NGActivity
-        implements GpsEventListener, IChooseLayerResult
+        implements GpsEventListener, IChooseLayerResult, TrackingState.OnStateChangedListener
 {
 
     protected MapFragment     mMapFragment;
@@ -105,12 +106,17 @@ public class MainActivity extends NGActivity
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
+        StartupTracer.beginLaunch(false);
+        long span = StartupTracer.begin("MainActivity.onCreate");
+
         super.onCreate(savedInstanceState);
         // initialize the default settings
+        long defaults = StartupTracer.begin("setDefaultValues");
         PreferenceManager.setDefaultValues(this, R.xml.preferences_general, false);
         PreferenceManager.setDefaultValues(this, R.xml.preferences_map, false);
         PreferenceManager.setDefaultValues(this, R.xml.preferences_location, false);
         PreferenceManager.setDefaultValues(this, R.xml.preferences_tracks, false);
+        StartupTracer.end(defaults);
 
         setContentView(R.layout.activity_main);
 
@@ -141,6 +147,7 @@ public class MainActivity extends NGActivity
         }
 
         mMessageReceiver = new MessageReceiver();
+        StartupTracer.end(span);
     }
 
 
@@ -227,13 +234,20 @@ public class MainActivity extends NGActivity
                 Intent trackerService = new Intent(this, TrackerService.class);
                 trackerService.putExtra(ConstantsUI.TARGET_CLASS, this.getClass().getName());
 
+                TrackingState state = TrackingState.getInstance(this);
                 int title = R.string.track_start, icon = R.drawable.ic_action_maps_directions_walk;
-                if (isTrackerServiceRunning(this)) {
+                if (state.isRecording()) {
                     stopService(trackerService);
-                } else if (hasUnfinishedTracks(this)) {
+                    ((MainApplication) app).getTrackMonitor().stop();
+                    state.setState(TrackingState.STATE_IDLE);
+                } else if (state.hasUnfinishedTracks()) {
                     TrackerService.closeTracks(this, app);
+                    ((MainApplication) app).getTrackMonitor().stop();
+                    state.setState(TrackingState.STATE_IDLE);
                 } else {
                     startService(trackerService);
+                    ((MainApplication) app).getTrackMonitor().start();
+                    state.setState(TrackingState.STATE_RECORDING);
                     title = R.string.track_stop;
                     icon = R.drawable.ic_action_maps_directions_walk_rec;
                 }
@@ -319,6 +333,11 @@ public class MainActivity extends NGActivity
                         ImageView iv = (ImageView) inflater.inflate(R.layout.layout_refresh, null);
                         iv.startAnimation(rotateAnimation);
                         mRefreshItem.setActionView(iv);
+                    } else if (progress > 0) {
+                        // real progress is known, turn the icon by it instead of spinning
+                        View view = mRefreshItem.getActionView();
+                        view.clearAnimation();
+                        view.setRotation(360f * progress / 100);
                     }
                 } else {
                     Handler handler = new Handler(Looper.getMainLooper());
@@ -725,6 +744,11 @@ public class MainActivity extends NGActivity
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(ConstantsUI.MESSAGE_INTENT);
         registerReceiver(mMessageReceiver, intentFilter);
+
+        // the recording could be stopped from the notification meanwhile
+        TrackingState state = TrackingState.getInstance(this);
+        state.addListener(this);
+        state.refresh();
     }
 
 
@@ -732,7 +756,7 @@ public class MainActivity extends NGActivity
     public boolean onPrepareOptionsMenu(Menu menu)
     {
         if (null != mLayersFragment && !mLayersFragment.isDrawerOpen()) {
-            boolean hasUnfinishedTracks = hasUnfinishedTracks(this);
+            boolean hasUnfinishedTracks = TrackingState.getInstance(this).hasUnfinishedTracks();
             int title = hasUnfinishedTracks ? R.string.track_stop : R.string.track_start;
             int icon = hasUnfinishedTracks ? R.drawable.ic_action_maps_directions_walk_rec : R.drawable.ic_action_maps_directions_walk;
             setTrackItem(menu.findItem(R.id.menu_track), title, icon);
@@ -753,6 +777,7 @@ public class MainActivity extends NGActivity
                 unregisterReceiver(mMessageReceiver);
         } catch (Exception ignored) { }
 
+        TrackingState.getInstance(this).removeListener(this);
         super.onPause();
     }
 
@@ -788,6 +813,13 @@ public class MainActivity extends NGActivity
     }
 
 
+    @Override
+    public void onTrackingStateChanged(int state)
+    {
+        supportInvalidateOptionsMenu();
+    }
+
+
     public void setActionBarState(boolean state)
     {
         mLayersFragment.setDrawerToggleEnabled(state);
@@ -816,4 +848,14 @@ public class MainActivity extends NGActivity
     public void setSubtitle(String subtitle) {
         mToolbar.setSubtitle(subtitle);
     }
+
+    public void setUndoRedoEnabled(boolean undo, boolean redo) {
+        MenuItem item = mToolbar.getMenu().findItem(R.id.menu_edit_undo);
+        if (null != item)
+            item.setEnabled(undo);
+
+        item = mToolbar.getMenu().findItem(R.id.menu_edit_redo);
+        if (null != item)
+            item.setEnabled(redo);
+    }
 }
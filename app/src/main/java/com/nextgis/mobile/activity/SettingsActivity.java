@@ -53,12 +53,12 @@ import com.nextgis.mobile.R;
 import com.nextgis.mobile.dialog.SelectMapPathDialogPreference;
 import com.nextgis.mobile.fragment.SettingsFragment;
 import com.nextgis.mobile.util.IntEditTextPreference;
+import com.nextgis.mobile.util.TrackingState;
 
 import java.io.File;
 import java.util.List;
 
 import static com.nextgis.maplib.util.SettingsConstants.KEY_PREF_MAP;
-import static com.nextgis.maplibui.service.TrackerService.isTrackerServiceRunning;
 import static com.nextgis.mobile.util.SettingsConstants.KEY_PREF_SHOW_COMPASS;
 import static com.nextgis.mobile.util.SettingsConstants.KEY_PREF_SHOW_ZOOM_CONTROLS;
 
@@ -366,7 +366,7 @@ public class SettingsActivity
             MainApplication application = (MainApplication) parent.getApplication();
             application.getGpsEventSource().updateActiveListeners();
         } else {
-            if (isTrackerServiceRunning(context)) {
+            if (TrackingState.getInstance(context).isRecording()) {
                 Toast.makeText(
                         context, context.getString(R.string.tracks_reload), Toast.LENGTH_SHORT)
                         .show();
@@ -23,12 +23,8 @@
 
 package com.nextgis.mobile.fragment;
 
-import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
-import android.location.Location;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
@@ -39,55 +35,26 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.FrameLayout;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.keenfin.easypicker.PhotoPicker;
-import com.nextgis.maplib.api.IGISApplication;
-import com.nextgis.maplib.datasource.Field;
-import com.nextgis.maplib.datasource.GeoGeometryFactory;
-import com.nextgis.maplib.datasource.GeoLineString;
-import com.nextgis.maplib.datasource.GeoMultiLineString;
-import com.nextgis.maplib.datasource.GeoMultiPoint;
-import com.nextgis.maplib.datasource.GeoMultiPolygon;
-import com.nextgis.maplib.datasource.GeoPoint;
-import com.nextgis.maplib.datasource.GeoPolygon;
 import com.nextgis.maplib.map.VectorLayer;
 import com.nextgis.maplib.util.Constants;
-import com.nextgis.maplib.util.GeoConstants;
-import com.nextgis.maplib.util.LocationUtil;
-import com.nextgis.maplibui.GISApplication;
 import com.nextgis.maplibui.api.IVectorLayerUI;
-import com.nextgis.maplibui.control.PhotoGallery;
 import com.nextgis.maplibui.fragment.BottomToolbar;
 import com.nextgis.maplibui.overlay.EditLayerOverlay;
 import com.nextgis.maplibui.util.ControlHelper;
-import com.nextgis.maplibui.util.SettingsConstantsUI;
 import com.nextgis.mobile.R;
 import com.nextgis.mobile.activity.MainActivity;
+import com.nextgis.mobile.util.AttributeRecord;
+import com.nextgis.mobile.util.AttributeRecordCache;
+import com.nextgis.mobile.util.FeatureIdNavigator;
 
-import java.io.IOException;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-
-import static com.nextgis.maplib.util.GeoConstants.CRS_WEB_MERCATOR;
-import static com.nextgis.maplib.util.GeoConstants.CRS_WGS84;
-import static com.nextgis.maplib.util.GeoConstants.FTDate;
-import static com.nextgis.maplib.util.GeoConstants.FTDateTime;
-import static com.nextgis.maplib.util.GeoConstants.FTTime;
-import static com.nextgis.maplib.util.GeoConstants.GTLineString;
-import static com.nextgis.maplib.util.GeoConstants.GTMultiLineString;
-import static com.nextgis.maplib.util.GeoConstants.GTMultiPoint;
-import static com.nextgis.maplib.util.GeoConstants.GTMultiPolygon;
-import static com.nextgis.maplib.util.GeoConstants.GTPoint;
-import static com.nextgis.maplib.util.GeoConstants.GTPolygon;
 
 
 public class AttributesFragment
@@ -95,10 +62,15 @@ public class AttributesFragment
 {
     protected static final String KEY_ITEM_ID       = "item_id";
     protected static final String KEY_ITEM_POSITION = "item_pos";
+    protected static final int    PREFETCH_COUNT    = 3;
 
-    private LinearLayout    mAttributes;
-    private VectorLayer     mLayer;
-    private List<Long>      mFeatureIDs;
+    private ListView             mAttributes;
+    private AttributesAdapter    mAdapter;
+    private FrameLayout          mGallery;
+    private VectorLayer          mLayer;
+    private FeatureIdNavigator   mNavigator;
+    private AttributeRecordCache mRecords;
+    private final long[]         mPrefetchIds = new long[PREFETCH_COUNT];
 
     private long        mItemId;
     private int         mItemPosition;
@@ -138,7 +110,11 @@ public class AttributesFragment
             view.setLayoutParams(lp);
         }
 
-        mAttributes = (LinearLayout) view.findViewById(R.id.ll_attributes);
+        mGallery = new FrameLayout(getActivity());
+        mAdapter = new AttributesAdapter();
+        mAttributes = (ListView) view.findViewById(R.id.lv_attributes);
+        mAttributes.addFooterView(mGallery, null, false);
+        mAttributes.setAdapter(mAdapter);
         setAttributes();
 
         return view;
@@ -148,6 +124,9 @@ public class AttributesFragment
     @Override
     public void onResume() {
         super.onResume();
+        if (null != mRecords)
+            mRecords.clear(); // back from the attributes edit form
+
         setAttributes();
         ((MainActivity) getActivity()).setActionBarState(isTablet());
     }
@@ -175,6 +154,18 @@ public class AttributesFragment
     }
 
 
+    @Override
+    public void onDestroy()
+    {
+        if (null != mRecords)
+            mRecords.shutdown();
+        mRecords = null;
+        if (null != mNavigator)
+            mNavigator.release();
+        super.onDestroy();
+    }
+
+
     public void setSelectedFeature(
             VectorLayer selectedLayer,
             long selectedItemId)
@@ -185,243 +176,155 @@ public class AttributesFragment
         if (mLayer == null)
             return;
 
-        mFeatureIDs = mLayer.query(null); // get all feature IDs
-
-        for (int i = 0; i < mFeatureIDs.size(); i++) {
-            if (mFeatureIDs.get(i) == mItemId) {
-                mItemPosition = i;
-                break;
-            }
+        if (null == mNavigator || mNavigator.getLayer() != mLayer) {
+            if (null != mNavigator)
+                mNavigator.release();
+            mNavigator = new FeatureIdNavigator(mLayer);
         }
 
+        mNavigator.moveTo(mItemId);
+        mItemPosition = mNavigator.getPosition();
+
+        if (null != mRecords)
+            mRecords.clear(); // a new session, the data could be edited meanwhile
+
         setAttributes();
     }
 
 
     private void setAttributes()
     {
-        if (mAttributes == null) {
+        if (mAttributes == null || mLayer == null) {
             return;
         }
 
-        mAttributes.removeAllViews();
-
         FragmentActivity activity = getActivity();
-        if (null == activity)
+        if (null == activity || null == mNavigator)
             return;
 
-        ((MainActivity) activity).setSubtitle(String.format(getString(R.string.features_count_attributes), mItemPosition + 1, mFeatureIDs.size()));
-
-        String selection = Constants.FIELD_ID + " = ?";
-        Cursor attributes = mLayer.query(null, selection, new String[]{mItemId + ""}, null, null);
-        if(null == attributes)
-            return;
+        mNavigator.observe(activity);
 
-        if (attributes.moveToFirst()) {
-            for (int i = 0; i < attributes.getColumnCount(); i++) {
-                String column = attributes.getColumnName(i);
-                String text;
-
-                if (column.startsWith(Constants.FIELD_GEOM_))
-                    continue;
-
-                if (column.equals(Constants.FIELD_GEOM)) {
-                    switch (mLayer.getGeometryType()) {
-                        case GTPoint:
-                            try {
-                                GeoPoint pt = (GeoPoint) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.coordinates), formatCoordinates(pt));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        case GTMultiPoint:
-                            try {
-                                GeoMultiPoint mpt = (GeoMultiPoint) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.center), formatCoordinates(mpt.getEnvelope().getCenter()));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        case GTLineString:
-                            try {
-                                GeoLineString line = (GeoLineString) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.length), formatLength(line.getLength()));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        case GTMultiLineString:
-                            try {
-                                GeoMultiLineString multiline = (GeoMultiLineString) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.length), formatLength(multiline.getLength()));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        case GTPolygon:
-                            try {
-                                GeoPolygon polygon = (GeoPolygon) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.perimeter), formatLength(polygon.getPerimeter()));
-                                addRow(getString(R.string.area), formatArea(polygon.getArea()));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        case GTMultiPolygon:
-                            try {
-                                GeoMultiPolygon polygon = (GeoMultiPolygon) GeoGeometryFactory.fromBlob(attributes.getBlob(i));
-                                addRow(getString(R.string.perimeter), formatLength(polygon.getPerimeter()));
-                                addRow(getString(R.string.area), formatArea(polygon.getArea()));
-                            } catch (IOException | ClassNotFoundException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        default:
-                            continue;
-                    }
-                }
+        ((MainActivity) activity).setSubtitle(String.format(getString(R.string.features_count_attributes), mItemPosition + 1, mNavigator.getCount()));
 
-                Field field = mLayer.getFieldByName(column);
-                int fieldType = field != null ? field.getType() : Constants.NOT_FOUND;
-                switch (fieldType) {
-                    case GeoConstants.FTInteger:
-                        text = attributes.getInt(i) + "";
-                        break;
-                    case GeoConstants.FTReal:
-                        NumberFormat nf = NumberFormat.getInstance();
-                        nf.setMaximumFractionDigits(4);
-                        nf.setGroupingUsed(false);
-                        text = nf.format(attributes.getDouble(i));
-                        break;
-                    case GeoConstants.FTDate:
-                    case GeoConstants.FTTime:
-                    case GeoConstants.FTDateTime:
-                        text = formatDateTime(attributes.getLong(i), fieldType);
-                        break;
-                    default:
-                        text = attributes.getString(i);
-                        break;
-                }
+        if (null == mRecords)
+            mRecords = new AttributeRecordCache(activity);
 
-            addRow(column, text);
+        mRecords.load(mLayer, mItemId, new AttributeRecordCache.OnRecordLoadedListener()
+        {
+            @Override
+            public void onRecordLoaded(AttributeRecord record)
+            {
+                if (record.getFeatureId() == mItemId && null != mAttributes && isAdded())
+                    setAttributes(record);
             }
+        });
 
-            IGISApplication app = (GISApplication) getActivity().getApplication();
-            final Map<String, Integer> mAttaches = new HashMap<>();
-        PhotoGallery.getAttaches(app, mLayer, mItemId, mAttaches);
+        prefetchNearbyItems();
+        checkNearbyItems();
+    }
 
-            if (mAttaches.size() > 0) {
-                final PhotoPicker gallery = new PhotoPicker(getActivity(), true);
-                gallery.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        gallery.restoreImages(new ArrayList<>(mAttaches.keySet()));
-                    }
-                });
 
-                mAttributes.addView(gallery);
-            }
-        }
+    private void setAttributes(AttributeRecord record)
+    {
+        mAdapter.setRecord(record);
+        mGallery.removeAllViews();
+
+        final List<String> attaches = record.getAttaches();
+        if (attaches.size() > 0) {
+            final PhotoPicker gallery = new PhotoPicker(getActivity(), true);
+            gallery.post(new Runnable() {
+                @Override
+                public void run() {
+                    gallery.restoreImages(new ArrayList<>(attaches));
+                }
+            });
 
-        attributes.close();
-        checkNearbyItems();
+            mGallery.addView(gallery);
+        }
     }
 
 
-    protected void addRow(String column, String text) {
-        LinearLayout row = new LinearLayout(getActivity());
-        row.setOrientation(LinearLayout.HORIZONTAL);
-        LinearLayout.LayoutParams params =
-                new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1);
-
-        TextView columnName = new TextView(getActivity());
-        columnName.setLayoutParams(params);
-        columnName.setText(column);
-        TextView data = new TextView(getActivity());
-        data.setLayoutParams(params);
+    private void prefetchNearbyItems()
+    {
+        int count = mNavigator.peek(true, mPrefetchIds);
+        mRecords.prefetch(mLayer, mPrefetchIds, count);
+        count = mNavigator.peek(false, mPrefetchIds);
+        mRecords.prefetch(mLayer, mPrefetchIds, count);
+    }
 
-        try {
-            data.setText(text);
-        } catch (Exception ignored) {
 
-        }
+    protected class AttributesAdapter
+            extends BaseAdapter
+    {
+        private AttributeRecord mRecord;
 
-        row.addView(columnName);
-        row.addView(data);
-        mAttributes.addView(row);
-    }
 
+        public void setRecord(AttributeRecord record)
+        {
+            mRecord = record;
+            notifyDataSetChanged();
+        }
 
-    protected String formatCoordinates(GeoPoint pt) {
-        pt.setCRS(CRS_WEB_MERCATOR);
-        pt.project(CRS_WGS84);
 
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
-        int format = prefs.getInt(SettingsConstantsUI.KEY_PREF_COORD_FORMAT + "_int", Location.FORMAT_SECONDS);
-        int fraction = prefs.getInt(SettingsConstantsUI.KEY_PREF_COORD_FRACTION, 6);
+        @Override
+        public int getCount()
+        {
+            return null == mRecord ? 0 : mRecord.getCount();
+        }
 
-        String lat = getString(com.nextgis.maplibui.R.string.latitude_caption_short) + ": " +
-                LocationUtil.formatLatitude(pt.getY(), format, fraction, getResources());
-        String lon = getString(com.nextgis.maplibui.R.string.longitude_caption_short) + ": " +
-                LocationUtil.formatLongitude(pt.getX(), format, fraction, getResources());
 
-        return lat + "\r\n" + lon;
-    }
+        @Override
+        public Object getItem(int position)
+        {
+            return mRecord.getValue(position);
+        }
 
 
-    protected String formatLength(double length) {
-        int div = 1, unit = R.string.unit_meter;
-        if (length >= 1000) {
-            div *= 1000;
-            unit = R.string.unit_kilometer;
+        @Override
+        public long getItemId(int position)
+        {
+            return position;
         }
 
-        return String.format("%.3f %s", length / div, getString(unit));
-    }
 
+        @Override
+        public View getView(
+                int position,
+                View convertView,
+                ViewGroup parent)
+        {
+            View view = convertView;
+            if (view == null) {
+                LayoutInflater inflater = LayoutInflater.from(getActivity());
+                view = inflater.inflate(R.layout.item_attribute, parent, false);
+                view.setTag(new ViewHolder(view));
+            }
+
+            ViewHolder holder = (ViewHolder) view.getTag();
+            holder.mColumn.setText(mRecord.getName(position));
+            holder.mValue.setText(mRecord.getValue(position));
 
-    protected String formatArea(double length) {
-        int div = 1, unit = R.string.unit_square_meter;
-        if (length >= 1000000) {
-            div *= 1000000;
-            unit = R.string.unit_square_kilometer;
+            return view;
         }
-
-        return String.format("%.3f %s", length / div, getString(unit));
     }
 
 
-    protected String formatDateTime(long millis, int type) {
-        String result = millis + "";
-        SimpleDateFormat sdf = null;
-
-        switch (type) {
-            case FTDate:
-                sdf = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
-                break;
-            case FTTime:
-                sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-                break;
-            case FTDateTime:
-                sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
-                break;
-        }
+    protected static class ViewHolder
+    {
+        protected final TextView mColumn, mValue;
 
-        if (sdf != null)
-            try {
-                result = sdf.format(new Date(millis));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
 
-        return result;
+        public ViewHolder(View row)
+        {
+            mColumn = (TextView) row.findViewById(R.id.tv_column);
+            mValue = (TextView) row.findViewById(R.id.tv_value);
+        }
     }
 
 
     private void checkNearbyItems() {
-        boolean hasNext = mItemPosition + 1 <= mFeatureIDs.size() - 1;
-        boolean hasPrevious = mItemPosition - 1 >= 0;
+        boolean hasNext = null != mNavigator && mNavigator.hasNext();
+        boolean hasPrevious = null != mNavigator && mNavigator.hasPrevious();
 
         if (mBottomMenu != null) {
             ControlHelper.setEnabled(mBottomMenu.findItem(R.id.menu_prev), hasPrevious);
@@ -432,22 +335,13 @@ public class AttributesFragment
 
     public void selectItem(boolean isNext)
     {
-        boolean hasItem = false;
-
-        if (isNext) {
-            if (mItemPosition < mFeatureIDs.size() - 1) {
-                mItemPosition++;
-                hasItem = true;
-            }
-        } else {
-            if (mItemPosition > 0) {
-                mItemPosition--;
-                hasItem = true;
-            }
-        }
+        if (null == mNavigator)
+            return;
 
-        if (hasItem) {
-            mItemId = mFeatureIDs.get(mItemPosition);
+        long id = isNext ? mNavigator.next() : mNavigator.previous();
+        if (id != Constants.NOT_FOUND) {
+            mItemId = id;
+            mItemPosition = mNavigator.getPosition();
             setAttributes();
             if (null != mEditLayerOverlay) {
                 mEditLayerOverlay.setSelectedFeature(mItemId);
@@ -475,6 +369,11 @@ public class AttributesFragment
         if (savedInstanceState != null) {
             mItemId = savedInstanceState.getLong(KEY_ITEM_ID);
             mItemPosition = savedInstanceState.getInt(KEY_ITEM_POSITION);
+
+            if (null != mNavigator) {
+                mNavigator.moveTo(mItemId);
+                mItemPosition = mNavigator.getPosition();
+            }
         }
 
         setAttributes();
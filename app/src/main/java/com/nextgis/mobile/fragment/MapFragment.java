@@ -24,13 +24,12 @@
 package com.nextgis.mobile.fragment;
 
 
-import android.content.ContentUris;
-import android.content.ContentValues;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.location.Location;
-import android.location.LocationManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.os.Vibrator;
@@ -40,7 +39,6 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
-import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -50,7 +48,6 @@ import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.cocosw.undobar.UndoBarController;
@@ -62,17 +59,13 @@ import com.nextgis.maplib.api.ILayerView;
 import com.nextgis.maplib.datasource.Feature;
 import com.nextgis.maplib.datasource.GeoEnvelope;
 import com.nextgis.maplib.datasource.GeoGeometry;
-import com.nextgis.maplib.datasource.GeoGeometryFactory;
-import com.nextgis.maplib.datasource.GeoMultiPolygon;
 import com.nextgis.maplib.datasource.GeoPoint;
-import com.nextgis.maplib.datasource.GeoPolygon;
 import com.nextgis.maplib.location.GpsEventSource;
 import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.map.VectorLayer;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.FileUtil;
 import com.nextgis.maplib.util.GeoConstants;
-import com.nextgis.maplib.util.LocationUtil;
 import com.nextgis.maplibui.api.EditEventListener;
 import com.nextgis.maplibui.api.ILayerUI;
 import com.nextgis.maplibui.api.IVectorLayerUI;
@@ -91,11 +84,21 @@ import com.nextgis.maplibui.util.SettingsConstantsUI;
 import com.nextgis.mobile.MainApplication;
 import com.nextgis.mobile.R;
 import com.nextgis.mobile.activity.MainActivity;
+import com.nextgis.mobile.util.FeatureEditSession;
+import com.nextgis.mobile.util.FeatureSelectionEngine;
+import com.nextgis.mobile.util.GeometryCodec;
+import com.nextgis.mobile.util.GeometryEditJournal;
+import com.nextgis.mobile.util.GeometryValidator;
+import com.nextgis.mobile.util.IncrementalGeometryValidator;
+import com.nextgis.mobile.util.InvalidSegmentOverlay;
+import com.nextgis.mobile.util.LayerDrawTimings;
+import com.nextgis.mobile.util.LocationFrameDispatcher;
+import com.nextgis.mobile.util.StartupTracer;
+import com.nextgis.mobile.util.StatusPanelRenderer;
 
 import java.io.IOException;
 import java.util.List;
 
-import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
 import static com.nextgis.maplib.util.Constants.FIELD_ID;
 import static com.nextgis.maplib.util.Constants.NOT_FOUND;
 import static com.nextgis.mobile.util.SettingsConstants.KEY_PREF_SCROLL_X;
@@ -119,22 +122,29 @@ public class MapFragment
     protected FloatingActionButton mivZoomOut;
     protected FloatingActionButton mAddNewGeometry;
 
-    protected TextView mStatusSource, mStatusAccuracy, mStatusSpeed, mStatusAltitude,
-            mStatusLatitude, mStatusLongitude;
+    protected StatusPanelRenderer mStatusRenderer;
     protected FrameLayout mStatusPanel;
 
     protected RelativeLayout         mMapRelativeLayout;
     protected GpsEventSource         mGpsEventSource;
+    protected LocationFrameDispatcher mLocationDispatcher;
     protected View                   mMainButton;
     protected View                   mAddPointButton;
     protected int                    mMode;
     protected CurrentLocationOverlay mCurrentLocationOverlay;
     protected CurrentTrackOverlay    mCurrentTrackOverlay;
     protected EditLayerOverlay       mEditLayerOverlay;
+    protected InvalidSegmentOverlay  mInvalidSegmentOverlay;
     protected GeoPoint               mCurrentCenter;
     protected VectorLayer            mSelectedLayer;
+    protected FeatureSelectionEngine mSelectionEngine;
+    protected LayerDrawTimings       mDrawTimings;
+    protected int                    mDrawProgress;
+    protected IncrementalGeometryValidator mLiveValidator;
+    protected GeometryEditJournal    mEditJournal;
+    protected boolean                mLiveGeometryValid;
+    protected ValidateGeometryTask   mValidateTask;
 
-    protected int mCoordinatesFormat, mCoordinatesFraction;
     protected ChooseLayerDialog mChooseLayerDialog;
     protected Vibrator mVibrator;
 
@@ -147,10 +157,12 @@ public class MapFragment
     protected static final String KEY_MODE = "mode";
     protected static final String BUNDLE_KEY_LAYER = "layer";
     protected static final String BUNDLE_KEY_FEATURE_ID = "feature";
-    protected static final String BUNDLE_KEY_SAVED_FEATURE = "feature_blob";
+    protected static final String BUNDLE_KEY_SAVED_FEATURE = "feature_state";
     protected boolean mIsCompassDragging;
     protected int mStatusPanelMode;
 
+    protected static final int MAX_SYNC_VALIDATION_VERTICES = 1000;
+
     protected final int ADD_CURRENT_LOC         = 1;
     public static final int EDIT_LAYER          = 2;
     protected final int ADD_GEOMETRY_BY_WALK    = 3;
@@ -172,6 +184,12 @@ public class MapFragment
         mMap.setId(777);
 
         mEditLayerOverlay = new EditLayerOverlay(mActivity, mMap);
+        mInvalidSegmentOverlay = new InvalidSegmentOverlay(mActivity, mMap);
+        mSelectionEngine = new FeatureSelectionEngine(mApp.getHitTestIndex());
+        mLocationDispatcher = new LocationFrameDispatcher(mGpsEventSource, mMap);
+        mDrawTimings = new LayerDrawTimings();
+        mLiveValidator = new IncrementalGeometryValidator();
+        mEditJournal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
     }
 
     public EditLayerOverlay getEditLayerOverlay() {
@@ -189,22 +207,90 @@ public class MapFragment
             case android.R.id.home:
                 cancelEdits();
                 return true;
+            case R.id.menu_edit_undo:
+            case R.id.menu_edit_redo:
+                if (mEditJournal.isTracking(mEditLayerOverlay.getSelectedFeatureGeometry()))
+                    return undoEdit(id == R.id.menu_edit_undo);
+                else
+                    return mEditLayerOverlay.onOptionsItemSelected(id);
             default:
                 return mEditLayerOverlay.onOptionsItemSelected(id);
         }
     }
 
 
+    protected boolean undoEdit(boolean undo) {
+        Feature feature = mEditLayerOverlay.getSelectedFeature();
+        GeoGeometry geometry = feature.getGeometry();
+        geometry = undo ? mEditJournal.undo(geometry) : mEditJournal.redo(geometry);
+
+        if (null != geometry) {
+            feature.setGeometry(geometry);
+            mEditLayerOverlay.setSelectedFeature(feature);
+            mEditLayerOverlay.clearHistory();
+            mEditLayerOverlay.setHasEdits(true);
+            updateLiveValidation();
+            mMap.postInvalidate();
+        }
+
+        mActivity.setUndoRedoEnabled(mEditJournal.canUndo(), mEditJournal.canRedo());
+        return true;
+    }
+
+
+    /**
+     * Put the finished edit gesture into the undo journal. The overlay keeps a full copy of the
+     * geometry per step, so its history is dropped.
+     */
+    protected void recordEdit() {
+        if (mMode != MODE_EDIT)
+            return;
+
+        mEditJournal.record(mEditLayerOverlay.getSelectedFeatureGeometry());
+        mEditLayerOverlay.clearHistory();
+        mActivity.setUndoRedoEnabled(mEditJournal.canUndo(), mEditJournal.canRedo());
+    }
+
+
     public boolean saveEdits() {
-        mEditLayerOverlay.setHasEdits(false);
         Feature feature = mEditLayerOverlay.getSelectedFeature();
 
         if (mSelectedLayer != null && feature != null) {
-            long featureId = feature.getId();
             GeoGeometry geometry = feature.getGeometry();
 
-            if (!isGeometryValid(geometry))
+            // already known from the edit session
+            if (mLiveValidator.isTracking(geometry)) {
+                if (!isGeometryValid(mLiveValidator.update(geometry)))
+                    return false;
+
+                applyEdits(feature);
+                return true;
+            }
+
+            // big walked polygons are checked in background
+            if (GeometryValidator.getVertexCount(geometry) > MAX_SYNC_VALIDATION_VERTICES) {
+                cancelValidation();
+                mValidateTask = new ValidateGeometryTask(feature);
+                mValidateTask.execute();
+                return true;
+            }
+
+            if (!isGeometryValid(GeometryValidator.validate(geometry, null)))
                 return false;
+        }
+
+        applyEdits(feature);
+        return true;
+    }
+
+
+    protected void applyEdits(Feature feature) {
+        mEditLayerOverlay.setHasEdits(false);
+        mApp.getEditStateJournal().clear();
+
+        if (mSelectedLayer != null && feature != null) {
+            long featureId = feature.getId();
+            GeoGeometry geometry = feature.getGeometry();
 
             if (featureId == Constants.NOT_FOUND) {
                 //show attributes edit activity
@@ -212,53 +298,126 @@ public class MapFragment
                 vectorLayerUI.showEditForm(mActivity, featureId, geometry);
                 mEditLayerOverlay.setSelectedFeature(null);
             } else {
-                Uri uri = Uri.parse("content://" + mApp.getAuthority() + "/" + mSelectedLayer.getPath().getName());
-                uri = ContentUris.withAppendedId(uri, featureId);
-                ContentValues values = new ContentValues();
-
-                try {
-                    values.put(FIELD_GEOM, geometry.toBlob());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-
-                mActivity.getContentResolver().update(uri, values, null, null);
+                new FeatureEditSession(mApp).updateGeometry(mSelectedLayer, featureId, geometry).commit();
             }
 
             mSelectedLayer.showFeature(featureId);
         }
 
         setMode(MODE_SELECT_ACTION);
-        return true;
     }
 
 
-    protected boolean isGeometryValid(GeoGeometry geometry) {
-        if (geometry instanceof GeoPolygon) {
-            if (((GeoPolygon) geometry).isSelfIntersects()) {
+    /**
+     * Report the problem, highlight the offending segment and bring it to the screen center
+     */
+    protected boolean isGeometryValid(GeometryValidator.Result result) {
+        switch (result.getError()) {
+            case GeometryValidator.ERROR_SELF_INTERSECTION:
                 Toast.makeText(getContext(), R.string.self_intersection, Toast.LENGTH_SHORT).show();
-                return false;
-            }
-
-            if (!((GeoPolygon) geometry).isHolesInside()) {
+                break;
+            case GeometryValidator.ERROR_RING_OUTSIDE:
                 Toast.makeText(getContext(), R.string.ring_outside, Toast.LENGTH_SHORT).show();
-                return false;
-            }
+                break;
+            default:
+                mInvalidSegmentOverlay.setSegment(null);
+                return true;
         }
 
-        if (geometry instanceof GeoMultiPolygon) {
-            if (((GeoMultiPolygon) geometry).isSelfIntersects()) {
-                Toast.makeText(getContext(), R.string.self_intersection, Toast.LENGTH_SHORT).show();
-                return false;
-            }
+        mInvalidSegmentOverlay.setSegment(result.getSegment());
+        mMap.panTo(result.getSegmentCenter());
+        return false;
+    }
 
-            if (!((GeoMultiPolygon) geometry).isHolesInside()) {
-                Toast.makeText(getContext(), R.string.ring_outside, Toast.LENGTH_SHORT).show();
-                return false;
-            }
+
+    /**
+     * Stop the background check, the edits stay in the editor to be saved again
+     */
+    protected void cancelValidation() {
+        if (null != mValidateTask) {
+            mValidateTask.cancel(true);
+            mValidateTask.dismissProgress();
+            mValidateTask = null;
         }
+    }
 
-        return true;
+
+    protected class ValidateGeometryTask
+            extends AsyncTask<Void, Integer, GeometryValidator.Result>
+            implements GeometryValidator.ProgressListener
+    {
+        protected final Feature  mFeature;
+        protected ProgressDialog mProgressDialog;
+
+
+        public ValidateGeometryTask(Feature feature)
+        {
+            mFeature = feature;
+        }
+
+
+        @Override
+        protected void onPreExecute()
+        {
+            mProgressDialog = new ProgressDialog(mActivity);
+            mProgressDialog.setMessage(getString(R.string.validating_geometry));
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setMax(100);
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.show();
+        }
+
+
+        @Override
+        protected GeometryValidator.Result doInBackground(Void... voids)
+        {
+            return GeometryValidator.validate(mFeature.getGeometry(), this);
+        }
+
+
+        @Override
+        public void onProgress(
+                int done,
+                int total)
+        {
+            publishProgress(total == 0 ? 100 : done * 100 / total);
+        }
+
+
+        @Override
+        public boolean isCanceled()
+        {
+            return isCancelled();
+        }
+
+
+        @Override
+        protected void onProgressUpdate(Integer... values)
+        {
+            mProgressDialog.setProgress(values[0]);
+        }
+
+
+        protected void dismissProgress()
+        {
+            if (null != mProgressDialog && mProgressDialog.isShowing())
+                mProgressDialog.dismiss();
+        }
+
+
+        @Override
+        protected void onPostExecute(GeometryValidator.Result result)
+        {
+            mValidateTask = null;
+            dismissProgress();
+
+            // the user could leave the editor meanwhile
+            if (null == result || mEditLayerOverlay.getSelectedFeature() != mFeature)
+                return;
+
+            if (isGeometryValid(result))
+                applyEdits(mFeature);
+        }
     }
 
 
@@ -268,6 +427,7 @@ public class MapFragment
 
         // restore
         mEditLayerOverlay.setHasEdits(false);
+        mApp.getEditStateJournal().clear();
         long featureId = mEditLayerOverlay.getSelectedFeatureId();
         mEditLayerOverlay.setSelectedFeature(featureId);
         setMode(MODE_SELECT_ACTION);
@@ -276,6 +436,10 @@ public class MapFragment
 
     protected void setMode(int mode) {
         mMode = mode;
+        mInvalidSegmentOverlay.setSegment(null);
+        mLiveValidator.reset();
+        mLiveGeometryValid = true;
+        mEditJournal.reset();
 
         hideMainButton();
         hideAddByTapButton();
@@ -300,6 +464,7 @@ public class MapFragment
             case MODE_EDIT:
                 mActivity.showEditToolbar();
                 mEditLayerOverlay.setMode(EditLayerOverlay.MODE_EDIT);
+                recordEdit();
                 break;
             case MODE_EDIT_BY_WALK:
                 toolbar.getMenu().clear();
@@ -373,7 +538,6 @@ public class MapFragment
                                         break;
                                     case R.id.menu_feature_edit:
                                         setMode(MODE_EDIT);
-                                        mEditLayerOverlay.saveToHistory();
                                         mEditLayerOverlay.setHasEdits(false);
                                         break;
                                     case R.id.menu_feature_delete:
@@ -445,8 +609,11 @@ public class MapFragment
 
         String featureName = String.format(getString(R.string.feature_n), featureId);
         String labelField = mSelectedLayer.getPreferences().getString(SettingsConstantsUI.KEY_PREF_LAYER_LABEL, FIELD_ID);
-        if (!labelField.equals(FIELD_ID))
-            featureName = mSelectedLayer.getFeature(featureId).getFieldValueAsString(labelField);
+        if (!labelField.equals(FIELD_ID) && featureId != Constants.NOT_FOUND) {
+            String label = mApp.getLabelCache().getLabel(mSelectedLayer, featureId, labelField);
+            if (null != label)
+                featureName = label;
+        }
 
         featureName = noFeature ? getString(R.string.nothing_selected) :
                 featureId == Constants.NOT_FOUND ? getString(R.string.new_feature) : featureName;
@@ -516,6 +683,7 @@ public class MapFragment
         mMap.addOverlay(mCurrentTrackOverlay);
         mMap.addOverlay(mCurrentLocationOverlay);
         mMap.addOverlay(mEditLayerOverlay);
+        mMap.addOverlay(mInvalidSegmentOverlay);
 
         //search relative view of map, if not found - add it
         mMapRelativeLayout = (RelativeLayout) view.findViewById(R.id.maprl);
@@ -547,6 +715,7 @@ public class MapFragment
         mivZoomOut.setOnClickListener(this);
 
         mStatusPanel = (FrameLayout) view.findViewById(R.id.fl_status_panel);
+        mStatusRenderer = new StatusPanelRenderer(mActivity, mStatusPanel);
         return view;
     }
 
@@ -565,6 +734,17 @@ public class MapFragment
     }
 
 
+    @Override
+    public void onDestroy()
+    {
+        if (null != mSelectionEngine) {
+            mSelectionEngine.shutdown();
+        }
+
+        super.onDestroy();
+    }
+
+
     protected void showMapButtons(
             boolean show,
             RelativeLayout rl)
@@ -605,6 +785,7 @@ public class MapFragment
     public void onLayerDeleted(int id)
     {
         setMode(MODE_NORMAL);
+        mApp.getHitTestIndex().retain(mMap.getVectorLayersByType(GeoConstants.GTAnyCheck));
     }
 
 
@@ -650,7 +831,23 @@ public class MapFragment
                 }
             }
         }*/
+        if (id != mMap.getMap().getId()) {
+            mDrawTimings.onLayerProgress(id, percent);
+            if (percent >= 1.0) {
+                ILayer layer = mMap.getLayerById(id);
+                mDrawTimings.onLayerFinished(id, null == layer ? id + "" : layer.getName());
+            }
+
+            // partial layer results move the refresh indicator
+            int progress = mDrawTimings.getProgress(mMap.getVisibleLayerCount());
+            if (progress != mDrawProgress && progress < 100 && null != mActivity) {
+                mDrawProgress = progress;
+                mActivity.onRefresh(true, progress);
+            }
+        }
+
         if (percent >= 1.0 && id == mMap.getMap().getId()) {
+            mDrawTimings.onDrawFinished();
             if (null != mActivity) {
                 mActivity.onRefresh(false, 1);
             }
@@ -661,6 +858,8 @@ public class MapFragment
     @Override
     public void onLayerDrawStarted()
     {
+        mDrawTimings.onDrawStarted();
+        mDrawProgress = 0;
         if (null != mActivity) {
             mActivity.onRefresh(true, 0);
         }
@@ -697,11 +896,9 @@ public class MapFragment
         outState.putLong(BUNDLE_KEY_FEATURE_ID, null == feature ? Constants.NOT_FOUND : feature.getId());
 
         if (null != feature && feature.getGeometry() != null) {
-            try {
-                outState.putByteArray(BUNDLE_KEY_SAVED_FEATURE, feature.getGeometry().toBlob());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // the geometry goes to the journal file, the Bundle keeps the handle only
+            long handle = mApp.getEditStateJournal().append(GeometryCodec.toBlob(feature.getGeometry()));
+            outState.putLong(BUNDLE_KEY_SAVED_FEATURE, handle);
         }
     }
 
@@ -728,7 +925,10 @@ public class MapFragment
                     GeoGeometry geometry = null;
 
                     try {
-                        geometry = GeoGeometryFactory.fromBlob(savedInstanceState.getByteArray(BUNDLE_KEY_SAVED_FEATURE));
+                        long handle = savedInstanceState.getLong(BUNDLE_KEY_SAVED_FEATURE);
+                        byte[] blob = mApp.getEditStateJournal().read(handle);
+                        if (null != blob)
+                            geometry = GeometryCodec.fromBlob(blob);
                     } catch (IOException | ClassNotFoundException e) {
                         e.printStackTrace();
                     }
@@ -764,12 +964,17 @@ public class MapFragment
         if (null != mCurrentLocationOverlay) {
             mCurrentLocationOverlay.stopShowingCurrentLocation();
         }
-        if (null != mGpsEventSource) {
-            mGpsEventSource.removeListener(this);
+        if (null != mLocationDispatcher) {
+            mLocationDispatcher.removeListener(this);
         }
         if (null != mEditLayerOverlay) {
             mEditLayerOverlay.removeListener(this);
         }
+        if (null != mSelectionEngine) {
+            mSelectionEngine.cancel();
+        }
+        // the dialog can't outlive the window, the user saves again after the restart
+        cancelValidation();
 
         final SharedPreferences.Editor edit =
                 PreferenceManager.getDefaultSharedPreferences(mActivity).edit();
@@ -790,6 +995,7 @@ public class MapFragment
     @Override
     public void onResume()
     {
+        long span = StartupTracer.begin("MapFragment.onResume");
         super.onResume();
 
         final SharedPreferences prefs =
@@ -822,19 +1028,17 @@ public class MapFragment
             mMap.setZoomAndCenter(mMapZoom, new GeoPoint(mMapScrollX, mMapScrollY));
 
             mMap.addListener(this);
+            mApp.getHitTestIndex().prepare(mMap.getVectorLayersByType(GeoConstants.GTAnyCheck));
         }
 
-        mCoordinatesFormat = prefs.getInt(SettingsConstantsUI.KEY_PREF_COORD_FORMAT + "_int", Location.FORMAT_DEGREES);
-        mCoordinatesFraction = prefs.getInt(SettingsConstantsUI.KEY_PREF_COORD_FRACTION, 6);
-
         if (null != mCurrentLocationOverlay) {
             mCurrentLocationOverlay.updateMode(
                     PreferenceManager.getDefaultSharedPreferences(mActivity)
                             .getString(SettingsConstantsUI.KEY_PREF_SHOW_CURRENT_LOC, "3"));
             mCurrentLocationOverlay.startShowingCurrentLocation();
         }
-        if (null != mGpsEventSource) {
-            mGpsEventSource.addListener(this);
+        if (null != mLocationDispatcher) {
+            mLocationDispatcher.addListener(this);
         }
         if (null != mEditLayerOverlay) {
             mEditLayerOverlay.addListener(this);
@@ -860,7 +1064,7 @@ public class MapFragment
                 if (mMode != MODE_NORMAL && mStatusPanelMode != 3)
                     mStatusPanel.setVisibility(View.INVISIBLE);
             } else {
-                mStatusPanel.removeAllViews();
+                mStatusRenderer.reset();
             }
 
             setMarginsToPanel();
@@ -870,6 +1074,9 @@ public class MapFragment
         checkCompass(showCompass);
 
         mCurrentCenter = null;
+
+        StartupTracer.end(span);
+        StartupTracer.endLaunch(mActivity);
     }
 
 
@@ -1176,50 +1383,48 @@ public class MapFragment
             return;
         }
 
-        double dMinX = event.getX() - mTolerancePX;
-        double dMaxX = event.getX() + mTolerancePX;
-        double dMinY = event.getY() - mTolerancePX;
-        double dMaxY = event.getY() + mTolerancePX;
-
-        GeoEnvelope mapEnv = mMap.screenToMap(new GeoEnvelope(dMinX, dMaxX, dMinY, dMaxY));
+        GeoEnvelope mapEnv = getTapEnvelope(event);
         if (null == mapEnv) {
             return;
         }
 
         //show actions dialog
         List<ILayer> layers = mMap.getVectorLayersByType(GeoConstants.GTAnyCheck);
-        List<Long> items = null;
-        VectorLayer vectorLayer = null;
-        boolean intersects = false;
-        for (ILayer layer : layers) {
-            if (!layer.isValid()) {
-                continue;
-            }
-            ILayerView layerView = (ILayerView) layer;
-            if (!layerView.isVisible()) {
-                continue;
+        mSelectionEngine.select(layers, mapEnv, new FeatureSelectionEngine.OnFeatureSelectedListener()
+        {
+            @Override
+            public void onFeatureSelected(
+                    VectorLayer layer,
+                    Feature feature)
+            {
+                if (!isAdded() || null == feature)
+                    return;
+                if (!(mMode == MODE_NORMAL || mMode == MODE_SELECT_ACTION))
+                    return;
+
+                //add geometry to overlay
+                mSelectedLayer = layer;
+                mEditLayerOverlay.setSelectedLayer(layer);
+                mEditLayerOverlay.setSelectedFeature(feature);
+                //set select action mode
+                setMode(MODE_SELECT_ACTION);
+                mMap.postInvalidate();
             }
+        });
 
-            vectorLayer = (VectorLayer) layer;
-            items = vectorLayer.query(mapEnv);
-            if (!items.isEmpty()) {
-                intersects = true;
-                break;
-            }
-        }
+        showOverlayPoint(event);
+        mMap.postInvalidate();
+    }
 
 
-        if (intersects) {
-            //add geometry to overlay
-            mSelectedLayer = vectorLayer;
-            mEditLayerOverlay.setSelectedLayer(vectorLayer);
-            mEditLayerOverlay.setSelectedFeature(items.get(0));
-            setMode(MODE_SELECT_ACTION);
-        }
+    protected GeoEnvelope getTapEnvelope(MotionEvent event)
+    {
+        double dMinX = event.getX() - mTolerancePX;
+        double dMaxX = event.getX() + mTolerancePX;
+        double dMinY = event.getY() - mTolerancePX;
+        double dMaxY = event.getY() + mTolerancePX;
 
-        showOverlayPoint(event);
-        //set select action mode
-        mMap.postInvalidate();
+        return mMap.screenToMap(new GeoEnvelope(dMinX, dMaxX, dMinY, dMaxY));
     }
 
 
@@ -1265,31 +1470,13 @@ public class MapFragment
     {
         switch (mMode) {
             case MODE_EDIT:
-            case MODE_SELECT_ACTION:
-//                setMode(MODE_NORMAL);
-//                if (null != mEditLayerOverlay) {
-//                    mEditLayerOverlay.setSelectedFeature(null, Constants.NOT_FOUND);
-//                    mEditLayerOverlay.setMode(EditLayerOverlay.MODE_NONE);
-//                }
                 mEditLayerOverlay.selectGeometryInScreenCoordinates(event.getX(), event.getY());
                 defineMenuItems();
+                recordEdit();
                 break;
+            case MODE_SELECT_ACTION:
             case MODE_INFO:
-                mEditLayerOverlay.selectGeometryInScreenCoordinates(event.getX(), event.getY());
-
-                if (null != mEditLayerOverlay) {
-                    AttributesFragment attributesFragment =
-                            (AttributesFragment) mActivity.getSupportFragmentManager()
-                                    .findFragmentByTag("ATTRIBUTES");
-
-                    if (attributesFragment != null) {
-                        attributesFragment.setSelectedFeature(mSelectedLayer,
-                                mEditLayerOverlay.getSelectedFeatureId());
-
-                        mMap.postInvalidate();
-                    }
-                }
-
+                selectInSelectedLayer(event);
                 break;
             default:
                 hideOverlayPoint();
@@ -1298,24 +1485,89 @@ public class MapFragment
     }
 
 
+    protected void selectInSelectedLayer(MotionEvent event)
+    {
+        GeoEnvelope mapEnv = getTapEnvelope(event);
+        if (null == mSelectedLayer || null == mapEnv)
+            return;
+
+        final int mode = mMode;
+        mSelectionEngine.select(mSelectedLayer, mapEnv, new FeatureSelectionEngine.OnFeatureSelectedListener()
+        {
+            @Override
+            public void onFeatureSelected(
+                    VectorLayer layer,
+                    Feature feature)
+            {
+                if (!isAdded() || mMode != mode)
+                    return;
+
+                if (mode == MODE_SELECT_ACTION) {
+                    mEditLayerOverlay.setSelectedFeature(feature);
+                    defineMenuItems();
+                    mMap.postInvalidate();
+                    return;
+                }
+
+                if (null == feature)
+                    return;
+
+                mEditLayerOverlay.setSelectedFeature(feature);
+                AttributesFragment attributesFragment =
+                        (AttributesFragment) mActivity.getSupportFragmentManager()
+                                .findFragmentByTag("ATTRIBUTES");
+
+                if (attributesFragment != null) {
+                    attributesFragment.setSelectedFeature(mSelectedLayer, feature.getId());
+                    mMap.postInvalidate();
+                }
+            }
+        });
+    }
+
+
     @Override
     public void panStart(MotionEvent e)
     {
-
+        recordEdit(); // changes made from the toolbar go as a separate step
     }
 
 
     @Override
     public void panMoveTo(MotionEvent e)
     {
-
+        updateLiveValidation();
     }
 
 
     @Override
     public void panStop()
     {
+        updateLiveValidation();
+        recordEdit();
+    }
+
+
+    /**
+     * Re-check the segments moved by a vertex drag and show the state in the toolbar
+     */
+    protected void updateLiveValidation()
+    {
+        Feature feature = mEditLayerOverlay.getSelectedFeature();
+        if (mMode != MODE_EDIT || null == feature || null == feature.getGeometry())
+            return;
 
+        GeometryValidator.Result result = mLiveValidator.update(feature.getGeometry());
+        if (result.isValid() == mLiveGeometryValid)
+            return;
+
+        mLiveGeometryValid = result.isValid();
+        if (mLiveGeometryValid)
+            mActivity.setSubtitle(null);
+        else
+            mActivity.setSubtitle(getString(
+                    result.getError() == GeometryValidator.ERROR_RING_OUTSIDE ? R.string.ring_outside
+                                                                              : R.string.self_intersection));
     }
 
 
@@ -1345,123 +1597,10 @@ public class MapFragment
 
 
     private void fillStatusPanel(Location location){
-        if (mStatusPanelMode == 0)
+        if (mStatusPanelMode == 0 || null == mStatusRenderer)
             return;
 
-        boolean needViewUpdate = true;
-        boolean isCurrentOrientationOneLine = mStatusPanel.getChildCount() > 0 &&
-                mStatusPanel.getChildAt(0).getId() == R.id.status_container_land;
-
-        View panel;
-        if (!isCurrentOrientationOneLine) {
-            panel = mActivity.getLayoutInflater().inflate(R.layout.status_panel_land, mStatusPanel, false);
-            defineTextViews(panel);
-        } else {
-            panel = mStatusPanel.getChildAt(0);
-            needViewUpdate = false;
-        }
-
-        fillTextViews(location);
-
-        if (!isFitOneLine()) {
-            panel = mActivity.getLayoutInflater().inflate(R.layout.status_panel, mStatusPanel, false);
-            defineTextViews(panel);
-            fillTextViews(location);
-            needViewUpdate = true;
-        }
-
-        if (needViewUpdate) {
-            mStatusPanel.removeAllViews();
-            panel.getBackground().setAlpha(128);
-            mStatusPanel.addView(panel);
-        }
-    }
-
-
-    private void fillTextViews(Location location)
-    {
-        if (null == location) {
-            setDefaultTextViews();
-        } else {
-            if (location.getProvider().equals(LocationManager.GPS_PROVIDER)) {
-                String text = "";
-                int satellites = location.getExtras() != null ? location.getExtras().getInt("satellites") : 0;
-                if (satellites > 0)
-                    text += satellites;
-
-                mStatusSource.setText(text);
-                mStatusSource.setCompoundDrawablesWithIntrinsicBounds(
-                        getResources().getDrawable(R.drawable.ic_location), null, null, null);
-            } else {
-                mStatusSource.setText("");
-                mStatusSource.setCompoundDrawablesWithIntrinsicBounds(
-                        getResources().getDrawable(R.drawable.ic_signal_wifi), null, null, null);
-            }
-
-            mStatusAccuracy.setText(
-                    String.format(
-                            "%.1f %s", location.getAccuracy(), getString(R.string.unit_meter)));
-            mStatusAltitude.setText(
-                    String.format(
-                            "%.1f %s", location.getAltitude(), getString(R.string.unit_meter)));
-            mStatusSpeed.setText(
-                    String.format(
-                            "%.1f %s/%s", location.getSpeed() * 3600 / 1000,
-                            getString(R.string.unit_kilometer), getString(R.string.unit_hour)));
-            mStatusLatitude.setText(
-                    formatCoordinate(location.getLatitude(), R.string.latitude_caption_short));
-            mStatusLongitude.setText(
-                    formatCoordinate(location.getLongitude(), R.string.longitude_caption_short));
-        }
-    }
-
-
-    private String formatCoordinate(double value, int appendix) {
-        return LocationUtil.formatCoordinate(value, mCoordinatesFormat, mCoordinatesFraction) + " " + getString(appendix);
-    }
-
-
-    private void setDefaultTextViews()
-    {
-        mStatusSource.setCompoundDrawables(null, null, null, null);
-        mStatusSource.setText("");
-        mStatusAccuracy.setText(getString(R.string.n_a));
-        mStatusAltitude.setText(getString(R.string.n_a));
-        mStatusSpeed.setText(getString(R.string.n_a));
-        mStatusLatitude.setText(getString(R.string.n_a));
-        mStatusLongitude.setText(getString(R.string.n_a));
-    }
-
-
-    private boolean isFitOneLine()
-    {
-        mStatusLongitude.measure(0, 0);
-        mStatusLatitude.measure(0, 0);
-        mStatusAltitude.measure(0, 0);
-        mStatusSpeed.measure(0, 0);
-        mStatusAccuracy.measure(0, 0);
-        mStatusSource.measure(0, 0);
-
-        int totalWidth = mStatusSource.getMeasuredWidth() + mStatusLongitude.getMeasuredWidth() +
-                         mStatusLatitude.getMeasuredWidth() + mStatusAccuracy.getMeasuredWidth() +
-                         mStatusSpeed.getMeasuredWidth() + mStatusAltitude.getMeasuredWidth();
-
-        DisplayMetrics metrics = new DisplayMetrics();
-        mActivity.getWindowManager().getDefaultDisplay().getMetrics(metrics);
-
-        return totalWidth < metrics.widthPixels;
-//        return totalWidth < mStatusPanel.getWidth();
-    }
-
-
-    private void defineTextViews(View panel)
-    {
-        mStatusSource = (TextView) panel.findViewById(R.id.tv_source);
-        mStatusAccuracy = (TextView) panel.findViewById(R.id.tv_accuracy);
-        mStatusSpeed = (TextView) panel.findViewById(R.id.tv_speed);
-        mStatusAltitude = (TextView) panel.findViewById(R.id.tv_altitude);
-        mStatusLatitude = (TextView) panel.findViewById(R.id.tv_latitude);
-        mStatusLongitude = (TextView) panel.findViewById(R.id.tv_longitude);
+        mStatusRenderer.render(location);
     }
 
 
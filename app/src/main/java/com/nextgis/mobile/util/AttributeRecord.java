@@ -0,0 +1,85 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Feature attributes decoded and formatted for display
+ */
+public class AttributeRecord
+{
+    protected final long         mFeatureId;
+    protected final List<String> mNames;
+    protected final List<String> mValues;
+    protected final List<String> mAttaches;
+
+
+    public AttributeRecord(long featureId)
+    {
+        mFeatureId = featureId;
+        mNames = new ArrayList<>();
+        mValues = new ArrayList<>();
+        mAttaches = new ArrayList<>();
+    }
+
+
+    public long getFeatureId()
+    {
+        return mFeatureId;
+    }
+
+
+    public void add(String name, String value)
+    {
+        mNames.add(name);
+        mValues.add(value);
+    }
+
+
+    public int getCount()
+    {
+        return mNames.size();
+    }
+
+
+    public String getName(int index)
+    {
+        return mNames.get(index);
+    }
+
+
+    public String getValue(int index)
+    {
+        return mValues.get(index);
+    }
+
+
+    public List<String> getAttaches()
+    {
+        return mAttaches;
+    }
+}
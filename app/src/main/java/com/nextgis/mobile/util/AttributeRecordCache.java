@@ -0,0 +1,411 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import com.nextgis.maplib.api.IGISApplication;
+import com.nextgis.maplib.datasource.Field;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.GeoConstants;
+import com.nextgis.maplib.util.LocationUtil;
+import com.nextgis.maplibui.control.PhotoGallery;
+import com.nextgis.mobile.MainApplication;
+import com.nextgis.mobile.R;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.nextgis.maplib.util.GeoConstants.CRS_WEB_MERCATOR;
+import static com.nextgis.maplib.util.GeoConstants.CRS_WGS84;
+import static com.nextgis.maplib.util.GeoConstants.GTLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPolygon;
+import static com.nextgis.maplib.util.GeoConstants.GTPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTPolygon;
+
+
+/**
+ * Small LRU of decoded attribute records keyed by layer and feature id. Records are read on a
+ * background thread, neighbours of the shown feature are prefetched the same way.
+ */
+public class AttributeRecordCache
+{
+    protected static final int CACHE_SIZE      = 64;
+    protected static final int COLUMN_SKIP     = -2;
+    protected static final int COLUMN_GEOMETRY = -3;
+
+    protected final Context                          mContext;
+    protected final LruCache<String, AttributeRecord> mCache;
+    protected final ExecutorService                  mExecutor;
+    protected final Handler                          mHandler;
+    protected final Map<String, ColumnPlan>          mPlans;
+    protected final FormatService                    mFormats;
+    protected final GeometryMetricsStore             mMetrics;
+    // used on the executor thread only
+    protected final StringBuilder                    mBuffer;
+
+
+    public interface OnRecordLoadedListener
+    {
+        void onRecordLoaded(AttributeRecord record);
+    }
+
+
+    public AttributeRecordCache(Context context)
+    {
+        mContext = context.getApplicationContext();
+        mCache = new LruCache<>(CACHE_SIZE);
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler(Looper.getMainLooper());
+        mPlans = new HashMap<>();
+        mFormats = FormatService.getInstance(mContext);
+        mMetrics = ((MainApplication) mContext).getMetricsStore();
+        mBuffer = new StringBuilder();
+    }
+
+
+    /**
+     * Get the record from cache or read it in background. The listener is called on the main
+     * thread, immediately if the record is cached.
+     */
+    public void load(
+            final VectorLayer layer,
+            final long featureId,
+            final OnRecordLoadedListener listener)
+    {
+        AttributeRecord record = mCache.get(getKey(layer, featureId));
+        if (null != record) {
+            listener.onRecordLoaded(record);
+            return;
+        }
+
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final AttributeRecord record = getOrRead(layer, featureId);
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (null != record)
+                            listener.onRecordLoaded(record);
+                    }
+                });
+            }
+        });
+    }
+
+
+    public void prefetch(
+            final VectorLayer layer,
+            long[] ids,
+            int count)
+    {
+        for (int i = 0; i < count; i++) {
+            final long featureId = ids[i];
+            if (null != mCache.get(getKey(layer, featureId)))
+                continue;
+
+            mExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    getOrRead(layer, featureId);
+                }
+            });
+        }
+    }
+
+
+    public void clear()
+    {
+        mCache.evictAll();
+        synchronized (mPlans) {
+            mPlans.clear(); // fields could be changed meanwhile
+        }
+    }
+
+
+    public void shutdown()
+    {
+        mExecutor.shutdownNow();
+    }
+
+
+    protected String getKey(
+            VectorLayer layer,
+            long featureId)
+    {
+        return layer.getPath().getName() + ":" + featureId;
+    }
+
+
+    protected AttributeRecord getOrRead(
+            VectorLayer layer,
+            long featureId)
+    {
+        String key = getKey(layer, featureId);
+        AttributeRecord record = mCache.get(key);
+        if (null == record) {
+            record = read(layer, featureId);
+            if (null != record)
+                mCache.put(key, record);
+        }
+
+        return record;
+    }
+
+
+    protected AttributeRecord read(
+            final VectorLayer layer,
+            final long featureId)
+    {
+        String selection = Constants.FIELD_ID + " = ?";
+        Cursor attributes = layer.query(getProjection(layer), selection, new String[]{featureId + ""}, null, null);
+        if (null == attributes)
+            return null;
+
+        AttributeRecord record = new AttributeRecord(featureId);
+        if (attributes.moveToFirst()) {
+            ColumnPlan plan = getPlan(layer, attributes);
+            for (int i = 0; i < plan.mNames.length; i++) {
+                String column = plan.mNames[i];
+                int fieldType = plan.mTypes[i];
+                String text;
+
+                if (fieldType == COLUMN_SKIP)
+                    continue;
+
+                if (fieldType == COLUMN_GEOMETRY) {
+                    // the blob is read only if the stored metrics could be outdated
+                    GeometryMetrics metrics = mMetrics.get(layer.getPath().getName(), featureId,
+                            new GeometryMetricsStore.BlobLoader()
+                            {
+                                @Override
+                                public byte[] load()
+                                {
+                                    return readGeometry(layer, featureId);
+                                }
+                            });
+                    if (null == metrics)
+                        continue;
+
+                    switch (layer.getGeometryType()) {
+                        case GTPoint:
+                            record.add(getString(R.string.coordinates), formatCoordinates(metrics.getCenter()));
+                            continue;
+                        case GTMultiPoint:
+                            record.add(getString(R.string.center), formatCoordinates(metrics.getCenter()));
+                            continue;
+                        case GTLineString:
+                        case GTMultiLineString:
+                            record.add(getString(R.string.length), formatLength(metrics.getLength()));
+                            continue;
+                        case GTPolygon:
+                        case GTMultiPolygon:
+                            record.add(getString(R.string.perimeter), formatLength(metrics.getPerimeter()));
+                            record.add(getString(R.string.area), formatArea(metrics.getArea()));
+                            continue;
+                        default:
+                            continue;
+                    }
+                }
+
+                switch (fieldType) {
+                    case GeoConstants.FTInteger:
+                        text = attributes.getInt(i) + "";
+                        break;
+                    case GeoConstants.FTReal:
+                        text = mFormats.formatReal(attributes.getDouble(i));
+                        break;
+                    case GeoConstants.FTDate:
+                    case GeoConstants.FTTime:
+                    case GeoConstants.FTDateTime:
+                        text = mFormats.formatDateTime(attributes.getLong(i), fieldType);
+                        break;
+                    default:
+                        text = attributes.getString(i);
+                        break;
+                }
+
+                record.add(column, text);
+            }
+
+            IGISApplication app = (IGISApplication) mContext;
+            Map<String, Integer> attaches = new HashMap<>();
+            PhotoGallery.getAttaches(app, layer, featureId, attaches);
+            record.getAttaches().addAll(attaches.keySet());
+        }
+
+        attributes.close();
+        return record;
+    }
+
+
+    /**
+     * Attribute columns only, the geometry column keeps its place but carries no data
+     */
+    protected String[] getProjection(VectorLayer layer)
+    {
+        List<Field> fields = layer.getFields();
+        String[] projection = new String[fields.size() + 2];
+        projection[0] = Constants.FIELD_ID;
+        projection[1] = "NULL AS " + Constants.FIELD_GEOM;
+        for (int i = 0; i < fields.size(); i++) {
+            projection[i + 2] = fields.get(i).getName();
+        }
+
+        return projection;
+    }
+
+
+    protected byte[] readGeometry(
+            VectorLayer layer,
+            long featureId)
+    {
+        Cursor cursor = layer.query(new String[] {Constants.FIELD_GEOM}, Constants.FIELD_ID + " = ?",
+                new String[] {featureId + ""}, null, null);
+        if (null == cursor)
+            return null;
+
+        byte[] blob = cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        cursor.close();
+        return blob;
+    }
+
+
+    /**
+     * Column names and types are resolved once per layer, not per row per feature
+     */
+    protected ColumnPlan getPlan(
+            VectorLayer layer,
+            Cursor cursor)
+    {
+        String key = layer.getPath().getName();
+        synchronized (mPlans) {
+            ColumnPlan plan = mPlans.get(key);
+            if (null != plan && plan.mNames.length == cursor.getColumnCount())
+                return plan;
+
+            plan = new ColumnPlan(cursor.getColumnCount());
+            for (int i = 0; i < plan.mNames.length; i++) {
+                String column = cursor.getColumnName(i);
+                plan.mNames[i] = column;
+
+                if (column.startsWith(Constants.FIELD_GEOM_)) {
+                    plan.mTypes[i] = COLUMN_SKIP;
+                } else if (column.equals(Constants.FIELD_GEOM)) {
+                    plan.mTypes[i] = COLUMN_GEOMETRY;
+                } else {
+                    Field field = layer.getFieldByName(column);
+                    plan.mTypes[i] = field != null ? field.getType() : Constants.NOT_FOUND;
+                }
+            }
+
+            mPlans.put(key, plan);
+            return plan;
+        }
+    }
+
+
+    protected static class ColumnPlan
+    {
+        protected final String[] mNames;
+        protected final int[]    mTypes;
+
+
+        public ColumnPlan(int count)
+        {
+            mNames = new String[count];
+            mTypes = new int[count];
+        }
+    }
+
+
+    protected String getString(int resId)
+    {
+        return mContext.getString(resId);
+    }
+
+
+    protected String formatCoordinates(GeoPoint pt) {
+        pt.setCRS(CRS_WEB_MERCATOR);
+        pt.project(CRS_WGS84);
+
+        int format = mFormats.getCoordinatesFormat(Location.FORMAT_SECONDS);
+        int fraction = mFormats.getCoordinatesFraction();
+
+        String lat = getString(com.nextgis.maplibui.R.string.latitude_caption_short) + ": " +
+                LocationUtil.formatLatitude(pt.getY(), format, fraction, mContext.getResources());
+        String lon = getString(com.nextgis.maplibui.R.string.longitude_caption_short) + ": " +
+                LocationUtil.formatLongitude(pt.getX(), format, fraction, mContext.getResources());
+
+        return lat + "\r\n" + lon;
+    }
+
+
+    protected String formatLength(double length) {
+        int div = 1, unit = R.string.unit_meter;
+        if (length >= 1000) {
+            div *= 1000;
+            unit = R.string.unit_kilometer;
+        }
+
+        return formatMeasure(length / div, unit);
+    }
+
+
+    protected String formatArea(double length) {
+        int div = 1, unit = R.string.unit_square_meter;
+        if (length >= 1000000) {
+            div *= 1000000;
+            unit = R.string.unit_square_kilometer;
+        }
+
+        return formatMeasure(length / div, unit);
+    }
+
+
+    protected String formatMeasure(double value, int unit) {
+        mBuffer.setLength(0);
+        mFormats.appendFixed(mBuffer, value, 3).append(' ').append(getString(unit));
+        return mBuffer.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append only journal of in-progress edit state in a memory mapped file. A record is a length,
+ * a CRC32 and the data; a zero length ends the journal. Writes are copies into the mapping, the
+ * system flushes them, so they survive the process death. Records are addressed by a handle small
+ * enough for a saved instance state Bundle. When the file is full it starts over with a new
+ * generation and the old handles stop resolving. The journal is cleared when the edit is saved or
+ * cancelled.
+ */
+public class EditStateJournal
+{
+    public static final long NO_HANDLE = -1;
+
+    protected static final int MAGIC         = 0x4E474553; // NGES
+    protected static final int HEADER_SIZE   = 16; // magic, reserved, generation
+    protected static final int RECORD_HEADER = 8;  // length, crc
+    protected static final int MIN_SIZE      = 256 * 1024;
+    protected static final int MAX_SIZE      = 16 * 1024 * 1024;
+
+    protected final File       mFile;
+    protected FileChannel      mChannel;
+    protected MappedByteBuffer mBuffer;
+    protected long             mGeneration;
+    protected int              mPosition;
+    protected long             mLastHandle = NO_HANDLE;
+    protected long             mLastCrc;
+    protected int              mLastLength;
+
+
+    public EditStateJournal(File file)
+    {
+        mFile = file;
+    }
+
+
+    /**
+     * @return record handle or NO_HANDLE if the journal is not writable. The same data appended
+     * twice in a row gets the same handle.
+     */
+    public synchronized long append(byte[] data)
+    {
+        if (data.length > MAX_SIZE - HEADER_SIZE - RECORD_HEADER * 2)
+            return NO_HANDLE;
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (mLastHandle != NO_HANDLE && mLastLength == data.length && mLastCrc == crc.getValue())
+            return mLastHandle;
+
+        try {
+            open();
+            int end = mPosition + RECORD_HEADER + data.length + 4;
+            if (end > MAX_SIZE) {
+                startGeneration(mGeneration + 1);
+                end = mPosition + RECORD_HEADER + data.length + 4;
+            }
+            if (end > mBuffer.capacity())
+                map(Math.min(MAX_SIZE, Math.max(end, mBuffer.capacity() * 2)));
+
+            int offset = mPosition;
+            mBuffer.position(offset + RECORD_HEADER);
+            mBuffer.put(data);
+            mBuffer.putInt(0); // the new end
+            mBuffer.putInt(offset + 4, (int) crc.getValue());
+            mBuffer.putInt(offset, data.length); // the record is complete now
+            mPosition = offset + RECORD_HEADER + data.length;
+
+            mLastHandle = mGeneration << 32 | offset;
+            mLastCrc = crc.getValue();
+            mLastLength = data.length;
+            return mLastHandle;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return NO_HANDLE;
+        }
+    }
+
+
+    /**
+     * @return the record data or null if the handle does not resolve any more
+     */
+    public synchronized byte[] read(long handle)
+    {
+        if (handle == NO_HANDLE)
+            return null;
+
+        try {
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        int offset = (int) handle;
+        if (handle >>> 32 != mGeneration || offset < HEADER_SIZE || offset >= mPosition)
+            return null;
+
+        return readRecord(offset);
+    }
+
+
+    /**
+     * Drop all records, called when the edit is over. Old handles stop resolving and a grown file
+     * is cut back to the initial size.
+     */
+    public synchronized void clear()
+    {
+        if (null == mBuffer && !mFile.exists())
+            return;
+
+        try {
+            open();
+            if (mChannel.size() > MIN_SIZE) {
+                // nothing may touch the mapped tail once the file is cut
+                map(MIN_SIZE);
+                mChannel.truncate(MIN_SIZE);
+            }
+            startGeneration(mGeneration + 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    protected byte[] readRecord(int offset)
+    {
+        if (offset + RECORD_HEADER > mBuffer.capacity())
+            return null;
+
+        int length = mBuffer.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER + length > mBuffer.capacity())
+            return null;
+
+        byte[] data = new byte[length];
+        mBuffer.position(offset + RECORD_HEADER);
+        mBuffer.get(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue() == mBuffer.getInt(offset + 4) ? data : null;
+    }
+
+
+    protected void open()
+            throws IOException
+    {
+        if (null != mBuffer)
+            return;
+
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        map((int) Math.min(MAX_SIZE, Math.max(MIN_SIZE, mChannel.size())));
+
+        if (mBuffer.getInt(0) != MAGIC) {
+            startGeneration(1);
+            return;
+        }
+
+        mGeneration = mBuffer.getLong(8);
+        mPosition = HEADER_SIZE;
+        // find the end, a torn record ends the journal too
+        byte[] data;
+        while (null != (data = readRecord(mPosition))) {
+            mPosition += RECORD_HEADER + data.length;
+        }
+    }
+
+
+    protected void map(int size)
+            throws IOException
+    {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+
+    protected void startGeneration(long generation)
+    {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, 0);
+        mBuffer.putLong(8, generation);
+        mBuffer.putInt(HEADER_SIZE, 0);
+        mGeneration = generation;
+        mPosition = HEADER_SIZE;
+        mLastHandle = NO_HANDLE;
+    }
+}
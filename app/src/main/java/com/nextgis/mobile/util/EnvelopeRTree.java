@@ -0,0 +1,313 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Packed Hilbert R-tree of feature envelopes. The tree is bulk loaded once, later inserts go
+ * to a small linear overflow and removals are tombstoned until the next repack.
+ */
+public class EnvelopeRTree
+{
+    protected static final int NODE_SIZE    = 16;
+    protected static final int HILBERT_BITS = 15;
+    protected static final int MIN_OVERFLOW = 256;
+
+    // packed part: entries sorted by hilbert value of the envelope center
+    protected int        mCount;
+    protected long[]     mIds;
+    protected double[]   mBoxes;
+    protected double[][] mLevels;
+
+    // dynamic part
+    protected int       mOverflowCount;
+    protected long[]    mOverflowIds;
+    protected double[]  mOverflowBoxes;
+    protected Set<Long> mRemoved;
+
+
+    public interface Visitor
+    {
+        void onHit(long id, double minX, double minY, double maxX, double maxY);
+    }
+
+
+    public EnvelopeRTree()
+    {
+        this(new long[0], new double[0], 0);
+    }
+
+
+    /**
+     * @param ids   feature identifiers
+     * @param boxes envelopes as minX, minY, maxX, maxY quads, one per id
+     * @param count number of entries to take from the arrays
+     */
+    public EnvelopeRTree(long[] ids, double[] boxes, int count)
+    {
+        mOverflowIds = new long[16];
+        mOverflowBoxes = new double[16 * 4];
+        mRemoved = new HashSet<>();
+        pack(ids, boxes, count);
+    }
+
+
+    public synchronized void insert(long id, double minX, double minY, double maxX, double maxY)
+    {
+        removeFromOverflow(id);
+        if (mOverflowCount == mOverflowIds.length) {
+            mOverflowIds = Arrays.copyOf(mOverflowIds, mOverflowCount * 2);
+            mOverflowBoxes = Arrays.copyOf(mOverflowBoxes, mOverflowCount * 2 * 4);
+        }
+
+        mOverflowIds[mOverflowCount] = id;
+        int i = mOverflowCount * 4;
+        mOverflowBoxes[i] = minX;
+        mOverflowBoxes[i + 1] = minY;
+        mOverflowBoxes[i + 2] = maxX;
+        mOverflowBoxes[i + 3] = maxY;
+        mOverflowCount++;
+
+        if (mCount > 0)
+            mRemoved.add(id); // hide the packed copy, if any
+
+        if (mOverflowCount > Math.max(MIN_OVERFLOW, mCount / 8))
+            repack();
+    }
+
+
+    public synchronized void remove(long id)
+    {
+        removeFromOverflow(id);
+        if (mCount > 0)
+            mRemoved.add(id);
+    }
+
+
+    public synchronized void query(
+            double minX,
+            double minY,
+            double maxX,
+            double maxY,
+            Visitor visitor)
+    {
+        if (mCount > 0)
+            queryNode(mLevels.length - 1, 0, minX, minY, maxX, maxY, visitor);
+
+        for (int i = 0; i < mOverflowCount; i++) {
+            int b = i * 4;
+            if (intersects(mOverflowBoxes, b, minX, minY, maxX, maxY))
+                visitor.onHit(mOverflowIds[i], mOverflowBoxes[b], mOverflowBoxes[b + 1],
+                        mOverflowBoxes[b + 2], mOverflowBoxes[b + 3]);
+        }
+    }
+
+
+    protected void queryNode(
+            int level,
+            int node,
+            double minX,
+            double minY,
+            double maxX,
+            double maxY,
+            Visitor visitor)
+    {
+        int from = node * NODE_SIZE;
+        if (level == 0) {
+            int to = Math.min(from + NODE_SIZE, mCount);
+            for (int i = from; i < to; i++) {
+                int b = i * 4;
+                if (!intersects(mBoxes, b, minX, minY, maxX, maxY))
+                    continue;
+                if (!mRemoved.isEmpty() && mRemoved.contains(mIds[i]))
+                    continue;
+
+                visitor.onHit(mIds[i], mBoxes[b], mBoxes[b + 1], mBoxes[b + 2], mBoxes[b + 3]);
+            }
+            return;
+        }
+
+        double[] children = mLevels[level - 1];
+        int to = Math.min(from + NODE_SIZE, children.length / 4);
+        for (int i = from; i < to; i++) {
+            if (intersects(children, i * 4, minX, minY, maxX, maxY))
+                queryNode(level - 1, i, minX, minY, maxX, maxY, visitor);
+        }
+    }
+
+
+    protected static boolean intersects(
+            double[] boxes,
+            int b,
+            double minX,
+            double minY,
+            double maxX,
+            double maxY)
+    {
+        return boxes[b] <= maxX && boxes[b + 2] >= minX && boxes[b + 1] <= maxY &&
+                boxes[b + 3] >= minY;
+    }
+
+
+    protected void removeFromOverflow(long id)
+    {
+        for (int i = 0; i < mOverflowCount; i++) {
+            if (mOverflowIds[i] != id)
+                continue;
+
+            int last = mOverflowCount - 1;
+            mOverflowIds[i] = mOverflowIds[last];
+            System.arraycopy(mOverflowBoxes, last * 4, mOverflowBoxes, i * 4, 4);
+            mOverflowCount--;
+            return;
+        }
+    }
+
+
+    protected void repack()
+    {
+        int total = mCount + mOverflowCount;
+        long[] ids = new long[total];
+        double[] boxes = new double[total * 4];
+        int count = 0;
+
+        for (int i = 0; i < mCount; i++) {
+            if (mRemoved.contains(mIds[i]))
+                continue;
+            ids[count] = mIds[i];
+            System.arraycopy(mBoxes, i * 4, boxes, count * 4, 4);
+            count++;
+        }
+
+        System.arraycopy(mOverflowIds, 0, ids, count, mOverflowCount);
+        System.arraycopy(mOverflowBoxes, 0, boxes, count * 4, mOverflowCount * 4);
+        count += mOverflowCount;
+
+        mOverflowCount = 0;
+        mRemoved.clear();
+        pack(ids, boxes, count);
+    }
+
+
+    protected void pack(long[] ids, double[] boxes, int count)
+    {
+        mCount = count;
+        mIds = new long[count];
+        mBoxes = new double[count * 4];
+        if (count == 0) {
+            mLevels = new double[0][];
+            return;
+        }
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int b = i * 4;
+            minX = Math.min(minX, boxes[b]);
+            minY = Math.min(minY, boxes[b + 1]);
+            maxX = Math.max(maxX, boxes[b + 2]);
+            maxY = Math.max(maxY, boxes[b + 3]);
+        }
+
+        // sort by (hilbert value << 32 | source index), primitive sort, no boxing
+        int side = (1 << HILBERT_BITS) - 1;
+        double scaleX = maxX > minX ? side / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? side / (maxY - minY) : 0;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int b = i * 4;
+            int x = (int) (((boxes[b] + boxes[b + 2]) / 2 - minX) * scaleX);
+            int y = (int) (((boxes[b + 1] + boxes[b + 3]) / 2 - minY) * scaleY);
+            keys[i] = ((long) hilbert(x, y) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        for (int i = 0; i < count; i++) {
+            int src = (int) (keys[i] & 0xffffffffL);
+            mIds[i] = ids[src];
+            System.arraycopy(boxes, src * 4, mBoxes, i * 4, 4);
+        }
+
+        int levels = 1;
+        for (int n = (count + NODE_SIZE - 1) / NODE_SIZE; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE)
+            levels++;
+
+        mLevels = new double[levels][];
+        double[] children = mBoxes;
+        int childCount = count;
+        for (int level = 0; level < levels; level++) {
+            int nodeCount = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+            double[] nodes = new double[nodeCount * 4];
+            for (int node = 0; node < nodeCount; node++) {
+                int n = node * 4;
+                nodes[n] = nodes[n + 1] = Double.MAX_VALUE;
+                nodes[n + 2] = nodes[n + 3] = -Double.MAX_VALUE;
+
+                int to = Math.min((node + 1) * NODE_SIZE, childCount);
+                for (int child = node * NODE_SIZE; child < to; child++) {
+                    int c = child * 4;
+                    nodes[n] = Math.min(nodes[n], children[c]);
+                    nodes[n + 1] = Math.min(nodes[n + 1], children[c + 1]);
+                    nodes[n + 2] = Math.max(nodes[n + 2], children[c + 2]);
+                    nodes[n + 3] = Math.max(nodes[n + 3], children[c + 3]);
+                }
+            }
+
+            mLevels[level] = nodes;
+            children = nodes;
+            childCount = nodeCount;
+        }
+    }
+
+
+    /**
+     * Distance along the hilbert curve for a point of the 2^15 x 2^15 grid
+     */
+    protected static int hilbert(int x, int y)
+    {
+        int d = 0;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+
+        return d;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.mobile.MainApplication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
+
+
+/**
+ * Collects feature geometry updates of an edit and sends them to the layer content provider in
+ * one applyBatch call
+ */
+public class FeatureEditSession
+{
+    protected final MainApplication mApp;
+    protected final List<Edit>      mEdits;
+
+
+    public FeatureEditSession(MainApplication app)
+    {
+        mApp = app;
+        mEdits = new ArrayList<>();
+    }
+
+
+    public FeatureEditSession updateGeometry(
+            VectorLayer layer,
+            long featureId,
+            GeoGeometry geometry)
+    {
+        try {
+            String layerName = layer.getPath().getName();
+            Uri uri = Uri.parse("content://" + mApp.getAuthority() + "/" + layerName);
+            mEdits.add(new Edit(layerName, featureId, ContentUris.withAppendedId(uri, featureId),
+                    geometry.toBlob(), geometry));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Send the collected changes and start a new session
+     *
+     * @return provider results or null on error
+     */
+    public ContentProviderResult[] commit()
+    {
+        if (mEdits.isEmpty())
+            return new ContentProviderResult[0];
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mEdits.size());
+        for (Edit edit : mEdits) {
+            ContentValues values = new ContentValues();
+            values.put(FIELD_GEOM, edit.mBlob);
+            operations.add(ContentProviderOperation.newUpdate(edit.mUri).withValues(values).build());
+        }
+
+        List<Edit> edits = new ArrayList<>(mEdits);
+        mEdits.clear();
+
+        long start = System.currentTimeMillis();
+        try {
+            ContentProviderResult[] results =
+                    mApp.getContentResolver().applyBatch(mApp.getAuthority(), operations);
+
+            if (Constants.DEBUG_MODE)
+                Log.d(Constants.TAG, "Edit session: " + operations.size() + " operations in " +
+                        (System.currentTimeMillis() - start) + " ms");
+
+            for (Edit edit : edits) {
+                mApp.getMetricsStore().put(edit.mLayer, edit.mFeatureId, edit.mBlob, edit.mGeometry);
+            }
+
+            return results;
+        } catch (RemoteException | OperationApplicationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    protected static class Edit
+    {
+        protected final String      mLayer;
+        protected final long        mFeatureId;
+        protected final Uri         mUri;
+        protected final byte[]      mBlob;
+        protected final GeoGeometry mGeometry;
+
+
+        public Edit(
+                String layer,
+                long featureId,
+                Uri uri,
+                byte[] blob,
+                GeoGeometry geometry)
+        {
+            mLayer = layer;
+            mFeatureId = featureId;
+            mUri = uri;
+            mBlob = blob;
+            mGeometry = geometry;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.nextgis.maplib.api.IGISApplication;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+
+import static com.nextgis.maplib.util.Constants.FIELD_ID;
+
+
+/**
+ * Walks layer features in identifier order. Neighbours are fetched by keyset queries into a
+ * small window, so memory use does not depend on the layer size. The features count is cached,
+ * the count and the window are read again after the layer content changes.
+ */
+public class FeatureIdNavigator
+        extends ContentObserver
+{
+    protected static final int WINDOW_SIZE = 32;
+
+    protected final VectorLayer mLayer;
+    protected final long[]      mWindow;
+    protected int               mWindowLength;
+    protected int               mIndex;
+    protected int               mPosition;
+    protected int               mCount;
+    protected volatile boolean  mChanged;
+    protected Context           mContext;
+
+
+    public FeatureIdNavigator(VectorLayer layer)
+    {
+        super(null);
+        mLayer = layer;
+        mWindow = new long[WINDOW_SIZE + 1];
+        mCount = queryCount(null, null);
+        mPosition = Constants.NOT_FOUND;
+    }
+
+
+    public VectorLayer getLayer()
+    {
+        return mLayer;
+    }
+
+
+    /**
+     * Follow the layer changes, the count and position are updated on the next use
+     */
+    public void observe(Context context)
+    {
+        if (null != mContext)
+            return;
+
+        mContext = context.getApplicationContext();
+        String authority = ((IGISApplication) mContext).getAuthority();
+        Uri uri = Uri.parse("content://" + authority + "/" + mLayer.getPath().getName());
+        mContext.getContentResolver().registerContentObserver(uri, true, this);
+        mChanged = true; // could be changed before
+    }
+
+
+    public void release()
+    {
+        if (null != mContext)
+            mContext.getContentResolver().unregisterContentObserver(this);
+        mContext = null;
+    }
+
+
+    /**
+     * @return cached layer features count
+     */
+    public int getCount()
+    {
+        update();
+        return mCount;
+    }
+
+
+    /**
+     * @return zero based position of the current feature in identifier order
+     */
+    public int getPosition()
+    {
+        update();
+        return mPosition;
+    }
+
+
+    @Override
+    public void onChange(boolean selfChange)
+    {
+        mChanged = true;
+    }
+
+
+    protected void update()
+    {
+        if (!mChanged)
+            return;
+
+        mChanged = false;
+        mCount = queryCount(null, null);
+        if (mWindowLength > 0)
+            load(mWindow[mIndex]); // the loaded neighbours could be deleted as well
+    }
+
+
+    public long getCurrentId()
+    {
+        return mWindowLength == 0 ? Constants.NOT_FOUND : mWindow[mIndex];
+    }
+
+
+    /**
+     * Make the feature current. A feature of the loaded window is reached by the index shift,
+     * other ones are loaded with their neighbours on both sides.
+     */
+    public void moveTo(long featureId)
+    {
+        if (mWindowLength > 0 && !mChanged) {
+            for (int i = 0; i < mWindowLength; i++) {
+                if (mWindow[i] == featureId) {
+                    mPosition += i - mIndex;
+                    mIndex = i;
+                    return;
+                }
+            }
+        }
+
+        load(featureId);
+    }
+
+
+    /**
+     * Load the feature with its neighbours. The position is counted by the query of smaller
+     * identifiers, SQLite walks the whole range for it, so it runs only on jumps and after the
+     * layer changes.
+     */
+    protected void load(long featureId)
+    {
+        mPosition = queryCount(FIELD_ID + " < ?", new String[] {featureId + ""});
+
+        int before = queryIds(featureId, false, 0, WINDOW_SIZE / 2);
+        reverse(0, before);
+        mWindow[before] = featureId;
+        int after = queryIds(featureId, true, before + 1, WINDOW_SIZE / 2);
+
+        mWindowLength = before + 1 + after;
+        mIndex = before;
+    }
+
+
+    public boolean hasNext()
+    {
+        update();
+        return mWindowLength > 0 && (mIndex + 1 < mWindowLength || mPosition + 1 < mCount);
+    }
+
+
+    public boolean hasPrevious()
+    {
+        update();
+        return mWindowLength > 0 && (mIndex > 0 || mPosition > 0);
+    }
+
+
+    /**
+     * @return the next feature id or NOT_FOUND if the current one is the last
+     */
+    public long next()
+    {
+        if (mWindowLength == 0)
+            return Constants.NOT_FOUND;
+
+        if (mIndex + 1 >= mWindowLength && !fetch(true)) {
+            mCount = mPosition + 1;
+            return Constants.NOT_FOUND;
+        }
+
+        mIndex++;
+        mPosition++;
+        return mWindow[mIndex];
+    }
+
+
+    /**
+     * @return the previous feature id or NOT_FOUND if the current one is the first
+     */
+    public long previous()
+    {
+        if (mWindowLength == 0)
+            return Constants.NOT_FOUND;
+
+        if (mIndex == 0 && !fetch(false)) {
+            mPosition = 0;
+            return Constants.NOT_FOUND;
+        }
+
+        mIndex--;
+        mPosition--;
+        return mWindow[mIndex];
+    }
+
+
+    /**
+     * Identifiers following (or preceding) the current one, nearest first. Only the loaded window
+     * is used, no query is run.
+     *
+     * @param forward direction
+     * @param ids     destination
+     * @return count of written identifiers
+     */
+    public int peek(boolean forward, long[] ids)
+    {
+        int count = 0;
+        if (forward) {
+            for (int i = mIndex + 1; i < mWindowLength && count < ids.length; i++) {
+                ids[count++] = mWindow[i];
+            }
+        } else {
+            for (int i = mIndex - 1; i >= 0 && count < ids.length; i--) {
+                ids[count++] = mWindow[i];
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Reload the window starting from the current feature in the direction
+     *
+     * @return true if there is at least one feature in the direction
+     */
+    protected boolean fetch(boolean forward)
+    {
+        long current = mWindow[mIndex];
+        if (forward) {
+            int fetched = queryIds(current, true, 1, WINDOW_SIZE);
+            if (fetched == 0)
+                return false;
+
+            mWindow[0] = current;
+            mWindowLength = fetched + 1;
+            mIndex = 0;
+        } else {
+            int fetched = queryIds(current, false, 0, WINDOW_SIZE);
+            if (fetched == 0)
+                return false;
+
+            reverse(0, fetched);
+            mWindow[fetched] = current;
+            mWindowLength = fetched + 1;
+            mIndex = fetched;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Keyset query of identifiers after (or before, descending) the given one into the window
+     *
+     * @return count of read identifiers
+     */
+    protected int queryIds(
+            long from,
+            boolean forward,
+            int offset,
+            int limit)
+    {
+        String selection = FIELD_ID + (forward ? " > ?" : " < ?");
+        String order = FIELD_ID + (forward ? " ASC" : " DESC");
+
+        Cursor cursor = mLayer.query(new String[] {FIELD_ID}, selection,
+                new String[] {from + ""}, order, limit + "");
+        if (null == cursor)
+            return 0;
+
+        int count = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                mWindow[offset + count] = cursor.getLong(0);
+                count++;
+            } while (cursor.moveToNext() && count < limit);
+        }
+        cursor.close();
+
+        return count;
+    }
+
+
+    protected void reverse(
+            int from,
+            int to)
+    {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            long tmp = mWindow[i];
+            mWindow[i] = mWindow[j];
+            mWindow[j] = tmp;
+        }
+    }
+
+
+    protected int queryCount(String selection, String[] selectionArgs)
+    {
+        int count = 0;
+        Cursor cursor = mLayer.query(new String[] {"COUNT(*)"}, selection, selectionArgs, null, null);
+        if (null != cursor) {
+            if (cursor.moveToFirst())
+                count = cursor.getInt(0);
+            cursor.close();
+        }
+
+        return count;
+    }
+}
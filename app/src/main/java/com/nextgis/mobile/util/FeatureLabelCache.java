@@ -0,0 +1,207 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import com.nextgis.maplib.datasource.Field;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.GeoConstants;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.nextgis.maplib.util.Constants.FIELD_ID;
+
+
+/**
+ * Feature labels for titles. Only the label column of the feature row is read, values are kept
+ * in a small LRU per layer and dropped on the layer content provider change notifications.
+ */
+public class FeatureLabelCache
+{
+    protected static final int CACHE_SIZE = 256;
+
+    protected final Context            mContext;
+    protected final String             mAuthority;
+    protected final Map<String, Entry> mEntries;
+    protected final FormatService      mFormats;
+
+
+    public FeatureLabelCache(
+            Context context,
+            String authority)
+    {
+        mContext = context.getApplicationContext();
+        mAuthority = authority;
+        mEntries = new HashMap<>();
+        mFormats = FormatService.getInstance(mContext);
+    }
+
+
+    /**
+     * @return the label field value as text or null if the feature or value is not found
+     */
+    public String getLabel(
+            VectorLayer layer,
+            long featureId,
+            String field)
+    {
+        Entry entry = getEntry(layer, field);
+        String label = entry.mLabels.get(featureId);
+        if (null != label)
+            return label;
+
+        label = formatValue(layer, field, featureId);
+        if (null != label)
+            entry.mLabels.put(featureId, label);
+
+        return label;
+    }
+
+
+    public void clear()
+    {
+        synchronized (mEntries) {
+            for (Entry entry : mEntries.values()) {
+                entry.release();
+            }
+            mEntries.clear();
+        }
+    }
+
+
+    protected String formatValue(
+            VectorLayer layer,
+            String field,
+            long featureId)
+    {
+        Cursor cursor = layer.query(new String[] {field}, FIELD_ID + " = ?",
+                new String[] {featureId + ""}, null, null);
+        if (null == cursor)
+            return null;
+
+        String text = null;
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            Field info = layer.getFieldByName(field);
+            int type = null != info ? info.getType() : Constants.NOT_FOUND;
+            switch (type) {
+                case GeoConstants.FTReal:
+                    text = mFormats.formatReal(cursor.getDouble(0));
+                    break;
+                case GeoConstants.FTDate:
+                case GeoConstants.FTTime:
+                case GeoConstants.FTDateTime:
+                    text = mFormats.formatDateTime(cursor.getLong(0), type);
+                    break;
+                default:
+                    text = cursor.getString(0);
+                    break;
+            }
+        }
+
+        cursor.close();
+        return text;
+    }
+
+
+    protected Entry getEntry(
+            VectorLayer layer,
+            String field)
+    {
+        String key = layer.getPath().getName();
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (null == entry || entry.mLayer != layer) {
+                if (null != entry)
+                    entry.release();
+
+                entry = new Entry(layer);
+                mEntries.put(key, entry);
+            }
+
+            if (!field.equals(entry.mField)) {
+                entry.mLabels.evictAll();
+                entry.mField = field;
+            }
+
+            return entry;
+        }
+    }
+
+
+    protected class Entry
+            extends ContentObserver
+    {
+        protected final VectorLayer            mLayer;
+        protected final LruCache<Long, String> mLabels;
+        protected String                       mField;
+
+
+        public Entry(VectorLayer layer)
+        {
+            super(null);
+            mLayer = layer;
+            mLabels = new LruCache<>(CACHE_SIZE);
+            Uri uri = Uri.parse("content://" + mAuthority + "/" + layer.getPath().getName());
+            mContext.getContentResolver().registerContentObserver(uri, true, this);
+        }
+
+
+        public void release()
+        {
+            mContext.getContentResolver().unregisterContentObserver(this);
+        }
+
+
+        @Override
+        public void onChange(boolean selfChange)
+        {
+            onChange(selfChange, null);
+        }
+
+
+        @Override
+        public void onChange(
+                boolean selfChange,
+                Uri uri)
+        {
+            if (null != uri && uri.getPathSegments().size() == 2) {
+                try {
+                    mLabels.remove(Long.parseLong(uri.getLastPathSegment()));
+                    return;
+                } catch (NumberFormatException e) {
+                    // not a feature uri, drop all
+                }
+            }
+
+            mLabels.evictAll();
+        }
+    }
+}
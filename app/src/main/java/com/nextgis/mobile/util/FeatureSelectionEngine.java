@@ -0,0 +1,203 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.datasource.Feature;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Runs feature hit tests and feature loading on a background thread. A new request supersedes
+ * the previous one, only the newest result is posted back to the main thread.
+ */
+public class FeatureSelectionEngine
+{
+    protected final MapHitTestIndex  mIndex;
+    protected final ExecutorService  mExecutor;
+    protected final Handler          mHandler;
+    protected final AtomicLong       mGeneration;
+    protected final LatencyHistogram mHistogram;
+
+
+    public interface OnFeatureSelectedListener
+    {
+        /**
+         * Called on the main thread for the newest request only
+         *
+         * @param layer   the layer of the selected feature, null if nothing was hit
+         * @param feature the selected feature with geometry loaded, null if nothing was hit
+         */
+        void onFeatureSelected(
+                VectorLayer layer,
+                Feature feature);
+    }
+
+
+    public FeatureSelectionEngine(MapHitTestIndex index)
+    {
+        mIndex = index;
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler(Looper.getMainLooper());
+        mGeneration = new AtomicLong();
+        mHistogram = new LatencyHistogram("Feature selection");
+    }
+
+
+    /**
+     * Select the nearest feature among the visible layers
+     *
+     * @param layers layers in draw order
+     * @param env    tolerance box in map coordinates
+     */
+    public void select(
+            final List<ILayer> layers,
+            final GeoEnvelope env,
+            OnFeatureSelectedListener listener)
+    {
+        submit(new Query()
+        {
+            @Override
+            public List<MapHitTestIndex.Hit> run()
+            {
+                return mIndex.query(layers, env);
+            }
+        }, listener);
+    }
+
+
+    /**
+     * Select the nearest feature of the given layer
+     */
+    public void select(
+            final VectorLayer layer,
+            final GeoEnvelope env,
+            OnFeatureSelectedListener listener)
+    {
+        submit(new Query()
+        {
+            @Override
+            public List<MapHitTestIndex.Hit> run()
+            {
+                return mIndex.query(layer, env);
+            }
+        }, listener);
+    }
+
+
+    /**
+     * Forget the pending request, its result will not be delivered. A superseded request is
+     * counted as dropped by its own generation check, queued ones return at once.
+     */
+    public void cancel()
+    {
+        mGeneration.incrementAndGet();
+    }
+
+
+    public void shutdown()
+    {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+
+    public LatencyHistogram getHistogram()
+    {
+        return mHistogram;
+    }
+
+
+    protected void submit(
+            final Query query,
+            final OnFeatureSelectedListener listener)
+    {
+        cancel();
+
+        final long generation = mGeneration.get();
+        final long start = SystemClock.uptimeMillis();
+
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (generation != mGeneration.get()) {
+                    mHistogram.recordDropped();
+                    return;
+                }
+
+                VectorLayer layer = null;
+                Feature feature = null;
+                List<MapHitTestIndex.Hit> hits = query.run();
+
+                if (!hits.isEmpty() && generation == mGeneration.get()) {
+                    MapHitTestIndex.Hit nearest = hits.get(0);
+                    layer = nearest.getLayer();
+                    feature = layer.getFeature(nearest.getFeatureId());
+                    if (null == feature)
+                        layer = null;
+                }
+
+                final VectorLayer selectedLayer = layer;
+                final Feature selectedFeature = feature;
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (generation != mGeneration.get()) {
+                            mHistogram.recordDropped();
+                            return;
+                        }
+
+                        listener.onFeatureSelected(selectedLayer, selectedFeature);
+                        mHistogram.record(SystemClock.uptimeMillis() - start);
+
+                        if (Constants.DEBUG_MODE)
+                            Log.d(Constants.TAG, mHistogram.toString());
+                    }
+                });
+            }
+        });
+    }
+
+
+    protected interface Query
+    {
+        List<MapHitTestIndex.Hit> run();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.nextgis.maplibui.util.SettingsConstantsUI;
+
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.nextgis.maplib.util.GeoConstants.FTDate;
+import static com.nextgis.maplib.util.GeoConstants.FTDateTime;
+import static com.nextgis.maplib.util.GeoConstants.FTTime;
+
+
+/**
+ * Shared formatters for attribute and coordinate rendering. Date and number formats are not
+ * thread safe, so each thread keeps its own instances, recreated when the locale changes.
+ * Coordinate settings are pushed by the preference listener instead of read per feature.
+ */
+public class FormatService
+        implements SharedPreferences.OnSharedPreferenceChangeListener
+{
+    protected static final String KEY_COORD_FORMAT = SettingsConstantsUI.KEY_PREF_COORD_FORMAT + "_int";
+    protected static final long[] POWERS_OF_TEN    = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+            10000000L, 100000000L, 1000000000L};
+
+    protected static FormatService mInstance;
+
+    protected final SharedPreferences mPreferences;
+    protected volatile int            mCoordinatesFormat;
+    protected volatile int            mCoordinatesFraction;
+
+    protected final ThreadLocal<Formats> mFormats = new ThreadLocal<Formats>()
+    {
+        @Override
+        protected Formats initialValue()
+        {
+            return new Formats(Locale.getDefault());
+        }
+    };
+
+
+    public static synchronized FormatService getInstance(Context context)
+    {
+        if (null == mInstance)
+            mInstance = new FormatService(context.getApplicationContext());
+
+        return mInstance;
+    }
+
+
+    protected FormatService(Context context)
+    {
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        mPreferences.registerOnSharedPreferenceChangeListener(this);
+        readCoordinatesSettings();
+    }
+
+
+    @Override
+    public void onSharedPreferenceChanged(
+            SharedPreferences sharedPreferences,
+            String key)
+    {
+        if (KEY_COORD_FORMAT.equals(key) || SettingsConstantsUI.KEY_PREF_COORD_FRACTION.equals(key))
+            readCoordinatesSettings();
+    }
+
+
+    protected void readCoordinatesSettings()
+    {
+        mCoordinatesFormat = mPreferences.getInt(KEY_COORD_FORMAT, Integer.MIN_VALUE);
+        mCoordinatesFraction = mPreferences.getInt(SettingsConstantsUI.KEY_PREF_COORD_FRACTION, 6);
+    }
+
+
+    public int getCoordinatesFormat(int defaultFormat)
+    {
+        int format = mCoordinatesFormat;
+        return format == Integer.MIN_VALUE ? defaultFormat : format;
+    }
+
+
+    public int getCoordinatesFraction()
+    {
+        return mCoordinatesFraction;
+    }
+
+
+    public String formatDateTime(long millis, int type)
+    {
+        SimpleDateFormat sdf;
+        Formats formats = getFormats();
+
+        switch (type) {
+            case FTDate:
+                sdf = formats.mDate;
+                break;
+            case FTTime:
+                sdf = formats.mTime;
+                break;
+            case FTDateTime:
+                sdf = formats.mDateTime;
+                break;
+            default:
+                return millis + "";
+        }
+
+        try {
+            return sdf.format(new Date(millis));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return millis + "";
+        }
+    }
+
+
+    /**
+     * Real attribute value, up to four fraction digits, no grouping
+     */
+    public String formatReal(double value)
+    {
+        return getFormats().mReal.format(value);
+    }
+
+
+    /**
+     * Append the value rounded to the fraction digits with the locale decimal separator. Does not
+     * allocate for finite values up to 10^18 / 10^fraction and up to 9 fraction digits.
+     *
+     * @param fraction fraction digits, negative is taken as 0
+     */
+    public StringBuilder appendFixed(StringBuilder sb, double value, int fraction)
+    {
+        return appendFixed(sb, value, fraction, getFormats());
+    }
+
+
+    protected static StringBuilder appendFixed(
+            StringBuilder sb,
+            double value,
+            int fraction,
+            Formats formats)
+    {
+        if (fraction < 0)
+            fraction = 0;
+
+        // the setting is not bounded, longer fractions go the slow way
+        if (fraction >= POWERS_OF_TEN.length) {
+            formats.mFixed.setMinimumFractionDigits(fraction);
+            formats.mFixed.setMaximumFractionDigits(fraction);
+            return sb.append(formats.mFixed.format(value));
+        }
+
+        long scale = POWERS_OF_TEN[fraction];
+        if (Double.isNaN(value) || Double.isInfinite(value) ||
+                Math.abs(value) >= Long.MAX_VALUE / scale) {
+            return sb.append(value);
+        }
+
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0)
+            sb.append('-');
+
+        sb.append(scaled / scale);
+        if (fraction > 0) {
+            sb.append(formats.mDecimalSeparator);
+            long rest = scaled % scale;
+            for (long p = scale / 10; p > 0; p /= 10) {
+                sb.append((char) ('0' + rest / p % 10));
+            }
+        }
+
+        return sb;
+    }
+
+
+    protected Formats getFormats()
+    {
+        Formats formats = mFormats.get();
+        Locale locale = Locale.getDefault();
+        if (!formats.mLocale.equals(locale)) {
+            formats = new Formats(locale);
+            mFormats.set(formats);
+        }
+
+        return formats;
+    }
+
+
+    protected static class Formats
+    {
+        protected final Locale           mLocale;
+        protected final SimpleDateFormat mDate, mTime, mDateTime;
+        protected final NumberFormat     mReal;
+        protected final NumberFormat     mFixed;
+        protected final char             mDecimalSeparator;
+
+
+        public Formats(Locale locale)
+        {
+            mLocale = locale;
+            mDate = new SimpleDateFormat("dd/MM/yyyy", locale);
+            mTime = new SimpleDateFormat("HH:mm", locale);
+            mDateTime = new SimpleDateFormat("dd/MM/yyyy HH:mm", locale);
+
+            mReal = NumberFormat.getInstance(locale);
+            mReal.setMaximumFractionDigits(4);
+            mReal.setGroupingUsed(false);
+
+            mFixed = NumberFormat.getInstance(locale);
+            mFixed.setGroupingUsed(false);
+
+            mDecimalSeparator = new DecimalFormatSymbols(locale).getDecimalSeparator();
+        }
+    }
+}
@@ -0,0 +1,539 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoGeometryCollection;
+import com.nextgis.maplib.datasource.GeoGeometryFactory;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiLineString;
+import com.nextgis.maplib.datasource.GeoMultiPoint;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.nextgis.maplib.util.GeoConstants.GTLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTLinearRing;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPolygon;
+import static com.nextgis.maplib.util.GeoConstants.GTPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTPolygon;
+
+
+/**
+ * Compact geometry blobs for the app own storage (saved state, edit journal).
+ * <p>
+ * Layout: magic "NG", version, precision, then the geometry as type, CRS and coordinates. With a
+ * precision of 0..9 decimal digits coordinates are zigzag varint deltas of the scaled values,
+ * otherwise raw little endian doubles. The lossless encoder picks the smallest precision every
+ * coordinate survives exactly. Blobs without the magic are read with the legacy serialization, so
+ * old data keeps working and is rewritten in the new format on the next save.
+ * <p>
+ * Layer geometry columns stay in the library format: the library itself reads them for drawing,
+ * sync and feature loading, so blobs of this format must not be written there.
+ */
+public class GeometryCodec
+{
+    protected static final byte MAGIC_0       = 'N';
+    protected static final byte MAGIC_1       = 'G';
+    protected static final byte VERSION       = 1;
+    protected static final byte PRECISION_RAW = (byte) 0xFF;
+    protected static final int  MAX_PRECISION = 9;
+    protected static final int  HEADER_SIZE   = 4;
+
+    protected static final double[] SCALES = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+
+    public static boolean isEncoded(byte[] blob)
+    {
+        return null != blob && blob.length >= HEADER_SIZE && blob[0] == MAGIC_0 &&
+                blob[1] == MAGIC_1;
+    }
+
+
+    /**
+     * Lossless encoding
+     */
+    public static byte[] toBlob(GeoGeometry geometry)
+    {
+        int precision = 0;
+        Coordinates coordinates = new Coordinates();
+        collect(geometry, coordinates);
+        for (int i = 0; i < coordinates.mSize && precision >= 0; i++) {
+            precision = getPrecision(coordinates.mValues[i], precision);
+        }
+
+        return toBlob(geometry, precision);
+    }
+
+
+    /**
+     * @param precision decimal digits to keep, negative for raw doubles
+     */
+    public static byte[] toBlob(
+            GeoGeometry geometry,
+            int precision)
+    {
+        Writer writer = new Writer(precision > MAX_PRECISION ? MAX_PRECISION : precision);
+        writer.writeByte(MAGIC_0);
+        writer.writeByte(MAGIC_1);
+        writer.writeByte(VERSION);
+        writer.writeByte(precision < 0 ? PRECISION_RAW : (byte) writer.mPrecision);
+        writer.writeVarLong(geometry.getCRS());
+        writer.writeGeometry(geometry);
+        return writer.toByteArray();
+    }
+
+
+    /**
+     * Read a blob in this format or in the legacy serialization format
+     */
+    public static GeoGeometry fromBlob(byte[] blob)
+            throws IOException, ClassNotFoundException
+    {
+        if (!isEncoded(blob))
+            return GeoGeometryFactory.fromBlob(blob);
+
+        try {
+            Reader reader = new Reader(blob);
+            int crs = (int) reader.readVarLong();
+            GeoGeometry geometry = reader.readGeometry();
+            setCRS(geometry, crs);
+            return geometry;
+        } catch (BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+            throw new IOException("Broken geometry blob");
+        }
+    }
+
+
+    /**
+     * Envelope of the blob geometry. Blobs in this format are scanned without creating any
+     * geometry objects.
+     *
+     * @return the envelope or null if the blob can not be read
+     */
+    public static GeoEnvelope readEnvelope(byte[] blob)
+    {
+        try {
+            if (!isEncoded(blob)) {
+                GeoGeometry geometry = GeoGeometryFactory.fromBlob(blob);
+                return null == geometry ? null : geometry.getEnvelope();
+            }
+
+            Reader reader = new Reader(blob);
+            reader.readVarLong(); // crs
+            reader.skipGeometry();
+            if (reader.mMinX > reader.mMaxX)
+                return null;
+
+            return new GeoEnvelope(reader.mMinX, reader.mMaxX, reader.mMinY, reader.mMaxY);
+        } catch (IOException | ClassNotFoundException | BufferUnderflowException |
+                IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    protected static int getPrecision(
+            double value,
+            int precision)
+    {
+        for (int i = precision; i <= MAX_PRECISION; i++) {
+            double scaled = value * SCALES[i];
+            if (Math.abs(scaled) < 1L << 52 && Math.round(scaled) / SCALES[i] == value)
+                return i;
+        }
+
+        return -1;
+    }
+
+
+    protected static void setCRS(
+            GeoGeometry geometry,
+            int crs)
+    {
+        geometry.setCRS(crs);
+        if (geometry instanceof GeoGeometryCollection) {
+            GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+            for (int i = 0; i < collection.size(); i++) {
+                setCRS(collection.get(i), crs);
+            }
+        }
+    }
+
+
+    protected static void collect(
+            GeoGeometry geometry,
+            Coordinates coordinates)
+    {
+        if (geometry instanceof GeoPoint) {
+            coordinates.add(((GeoPoint) geometry).getX(), ((GeoPoint) geometry).getY());
+        } else if (geometry instanceof GeoLineString) {
+            for (GeoPoint point : ((GeoLineString) geometry).getPoints()) {
+                collect(point, coordinates);
+            }
+        } else if (geometry instanceof GeoPolygon) {
+            GeoPolygon polygon = (GeoPolygon) geometry;
+            collect(polygon.getOuterRing(), coordinates);
+            for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+                collect(polygon.getInnerRing(i), coordinates);
+            }
+        } else if (geometry instanceof GeoGeometryCollection) {
+            GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+            for (int i = 0; i < collection.size(); i++) {
+                collect(collection.get(i), coordinates);
+            }
+        }
+    }
+
+
+    protected static class Coordinates
+    {
+        protected double[] mValues = new double[64];
+        protected int      mSize;
+
+
+        public void add(
+                double x,
+                double y)
+        {
+            if (mSize + 2 > mValues.length)
+                mValues = Arrays.copyOf(mValues, mValues.length * 2);
+
+            mValues[mSize++] = x;
+            mValues[mSize++] = y;
+        }
+    }
+
+
+    protected static class Writer
+    {
+        protected final int    mPrecision;
+        protected final double mScale;
+        protected byte[]       mBuffer;
+        protected int          mSize;
+        protected long         mLastX, mLastY;
+
+
+        public Writer(int precision)
+        {
+            mPrecision = precision;
+            mScale = precision < 0 ? 0 : SCALES[precision];
+            mBuffer = new byte[256];
+        }
+
+
+        public void writeGeometry(GeoGeometry geometry)
+        {
+            int type = geometry.getType();
+            writeByte((byte) type);
+
+            switch (type) {
+                case GTPoint:
+                    writePoint((GeoPoint) geometry);
+                    break;
+                case GTLineString:
+                case GTLinearRing:
+                    writePoints(((GeoLineString) geometry).getPoints());
+                    break;
+                case GTPolygon:
+                    GeoPolygon polygon = (GeoPolygon) geometry;
+                    writeVarLong(polygon.getInnerRingCount() + 1);
+                    writePoints(polygon.getOuterRing().getPoints());
+                    for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+                        writePoints(polygon.getInnerRing(i).getPoints());
+                    }
+                    break;
+                case GTMultiPoint:
+                case GTMultiLineString:
+                case GTMultiPolygon:
+                    GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+                    writeVarLong(collection.size());
+                    for (int i = 0; i < collection.size(); i++) {
+                        writeGeometry(collection.get(i));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported geometry type " + type);
+            }
+        }
+
+
+        protected void writePoints(List<GeoPoint> points)
+        {
+            writeVarLong(points.size());
+            for (GeoPoint point : points) {
+                writePoint(point);
+            }
+        }
+
+
+        protected void writePoint(GeoPoint point)
+        {
+            if (mPrecision < 0) {
+                writeLong(Double.doubleToRawLongBits(point.getX()));
+                writeLong(Double.doubleToRawLongBits(point.getY()));
+                return;
+            }
+
+            long x = Math.round(point.getX() * mScale);
+            long y = Math.round(point.getY() * mScale);
+            writeVarLong(zigzag(x - mLastX));
+            writeVarLong(zigzag(y - mLastY));
+            mLastX = x;
+            mLastY = y;
+        }
+
+
+        protected static long zigzag(long value)
+        {
+            return (value << 1) ^ (value >> 63);
+        }
+
+
+        public void writeVarLong(long value)
+        {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+
+        protected void writeLong(long value)
+        {
+            for (int i = 0; i < 8; i++) {
+                writeByte((byte) (value >>> (i * 8)));
+            }
+        }
+
+
+        public void writeByte(byte value)
+        {
+            if (mSize == mBuffer.length)
+                mBuffer = Arrays.copyOf(mBuffer, mSize * 2);
+
+            mBuffer[mSize++] = value;
+        }
+
+
+        public byte[] toByteArray()
+        {
+            return Arrays.copyOf(mBuffer, mSize);
+        }
+    }
+
+
+    /**
+     * Reads straight from the wrapped blob, no intermediate copies
+     */
+    protected static class Reader
+    {
+        protected final ByteBuffer mBuffer;
+        protected final boolean    mRaw;
+        protected final double     mScale;
+        protected long             mLastX, mLastY;
+        protected double           mX, mY;
+        protected double mMinX = Double.MAX_VALUE, mMinY = Double.MAX_VALUE;
+        protected double mMaxX = -Double.MAX_VALUE, mMaxY = -Double.MAX_VALUE;
+
+
+        public Reader(byte[] blob)
+                throws IOException
+        {
+            mBuffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+            mBuffer.position(2);
+            if (mBuffer.get() != VERSION)
+                throw new IOException("Unsupported geometry blob version");
+
+            byte precision = mBuffer.get();
+            mRaw = precision == PRECISION_RAW;
+            if (!mRaw && (precision < 0 || precision > MAX_PRECISION))
+                throw new IOException("Wrong geometry blob precision");
+
+            mScale = mRaw ? 0 : SCALES[precision];
+        }
+
+
+        public GeoGeometry readGeometry()
+        {
+            int type = mBuffer.get();
+            switch (type) {
+                case GTPoint:
+                    readPoint();
+                    return new GeoPoint(mX, mY);
+                case GTLineString:
+                    return readPoints(new GeoLineString());
+                case GTLinearRing:
+                    return readPoints(new GeoLinearRing());
+                case GTPolygon:
+                    GeoPolygon polygon = new GeoPolygon();
+                    int rings = readCount();
+                    for (int i = 0; i < rings; i++) {
+                        if (i == 0)
+                            readPoints(polygon.getOuterRing());
+                        else
+                            polygon.addInnerRing((GeoLinearRing) readPoints(new GeoLinearRing()));
+                    }
+                    return polygon;
+                case GTMultiPoint:
+                    return readCollection(new GeoMultiPoint());
+                case GTMultiLineString:
+                    return readCollection(new GeoMultiLineString());
+                case GTMultiPolygon:
+                    return readCollection(new GeoMultiPolygon());
+                default:
+                    throw new IllegalArgumentException("Unsupported geometry type " + type);
+            }
+        }
+
+
+        /**
+         * Walk the geometry updating the envelope only
+         */
+        public void skipGeometry()
+        {
+            int type = mBuffer.get();
+            int count;
+            switch (type) {
+                case GTPoint:
+                    readPoint();
+                    break;
+                case GTLineString:
+                case GTLinearRing:
+                    skipPoints();
+                    break;
+                case GTPolygon:
+                    count = readCount();
+                    for (int i = 0; i < count; i++) {
+                        skipPoints();
+                    }
+                    break;
+                case GTMultiPoint:
+                case GTMultiLineString:
+                case GTMultiPolygon:
+                    count = readCount();
+                    for (int i = 0; i < count; i++) {
+                        skipGeometry();
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported geometry type " + type);
+            }
+        }
+
+
+        protected GeoGeometry readCollection(GeoGeometryCollection collection)
+        {
+            int count = readCount();
+            for (int i = 0; i < count; i++) {
+                collection.add(readGeometry());
+            }
+
+            return collection;
+        }
+
+
+        protected GeoLineString readPoints(GeoLineString line)
+        {
+            int count = readCount();
+            for (int i = 0; i < count; i++) {
+                readPoint();
+                line.add(new GeoPoint(mX, mY));
+            }
+
+            return line;
+        }
+
+
+        protected void skipPoints()
+        {
+            int count = readCount();
+            for (int i = 0; i < count; i++) {
+                readPoint();
+            }
+        }
+
+
+        protected void readPoint()
+        {
+            if (mRaw) {
+                mX = mBuffer.getDouble();
+                mY = mBuffer.getDouble();
+            } else {
+                mLastX += unzigzag(readVarLong());
+                mLastY += unzigzag(readVarLong());
+                mX = mLastX / mScale;
+                mY = mLastY / mScale;
+            }
+
+            mMinX = Math.min(mMinX, mX);
+            mMinY = Math.min(mMinY, mY);
+            mMaxX = Math.max(mMaxX, mX);
+            mMaxY = Math.max(mMaxY, mY);
+        }
+
+
+        protected int readCount()
+        {
+            long count = readVarLong();
+            if (count < 0 || count > mBuffer.remaining())
+                throw new IllegalArgumentException("Wrong item count " + count);
+
+            return (int) count;
+        }
+
+
+        public long readVarLong()
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = mBuffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+
+        protected static long unzigzag(long value)
+        {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoGeometryCollection;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiLineString;
+import com.nextgis.maplib.datasource.GeoMultiPoint;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import static com.nextgis.maplib.util.GeoConstants.GTLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTLinearRing;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiLineString;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTMultiPolygon;
+import static com.nextgis.maplib.util.GeoConstants.GTPoint;
+import static com.nextgis.maplib.util.GeoConstants.GTPolygon;
+
+
+/**
+ * Undo and redo journal of the geometry under edit. Each step keeps only the changed vertex runs
+ * of every part (ring, line or point): where they start, the old and the new coordinates. Undo and
+ * redo splice them back in place, so they cost the size of the change. A step that adds or removes
+ * whole parts keeps encoded copies of the geometry instead.
+ * <p>
+ * The journal keeps its own copy of the last recorded coordinates and compares the geometry with
+ * it in place, so a step copies the changed runs only. The whole geometry is encoded only when the
+ * parts structure changes.
+ * <p>
+ * The journal holds at most the given number of coordinates. When it is over budget, repeated
+ * moves of the same vertex are merged first, then the oldest steps are dropped.
+ */
+public class GeometryEditJournal
+{
+    public static final int DEFAULT_BUDGET = 256 * 1024; // coordinates, 2 MB
+
+    protected final int            mBudget;
+    protected final LinkedList<Step> mUndo;
+    protected final LinkedList<Step> mRedo;
+    protected GeoGeometry          mGeometry;
+    protected int[]                mShape; // last recorded parts structure
+    protected List<double[]>       mState; // and coordinates per part
+    protected int                  mSize;  // coordinates held by the steps
+
+
+    public GeometryEditJournal(int budget)
+    {
+        mBudget = budget;
+        mUndo = new LinkedList<>();
+        mRedo = new LinkedList<>();
+    }
+
+
+    public void reset()
+    {
+        mGeometry = null;
+        mShape = null;
+        mState = null;
+        mUndo.clear();
+        mRedo.clear();
+        mSize = 0;
+    }
+
+
+    public boolean isTracking(GeoGeometry geometry)
+    {
+        return null != mGeometry && geometry == mGeometry;
+    }
+
+
+    public boolean canUndo()
+    {
+        return !mUndo.isEmpty();
+    }
+
+
+    public boolean canRedo()
+    {
+        return !mRedo.isEmpty();
+    }
+
+
+    /**
+     * Record the changes made since the last call as one step. A geometry other than the tracked
+     * one starts a new journal.
+     */
+    public void record(GeoGeometry geometry)
+    {
+        if (null == geometry) {
+            reset();
+            return;
+        }
+
+        if (!isTracking(geometry)) {
+            reset();
+            mGeometry = geometry;
+            mShape = getShape(geometry);
+            mState = getState(geometry);
+            return;
+        }
+
+        Step step = diff(geometry);
+        if (null == step)
+            return;
+
+        mRedo.clear();
+        push(step);
+    }
+
+
+    /**
+     * Revert the last step, pending changes are recorded first
+     *
+     * @return the geometry to show, it is a new object if the step changed the parts structure;
+     * null if there is nothing to undo
+     */
+    public GeoGeometry undo(GeoGeometry geometry)
+    {
+        record(geometry);
+        if (mUndo.isEmpty())
+            return null;
+
+        Step step = mUndo.removeLast();
+        mSize -= step.getSize();
+        apply(step, true);
+        mRedo.addLast(step);
+        return mGeometry;
+    }
+
+
+    public GeoGeometry redo(GeoGeometry geometry)
+    {
+        record(geometry); // new changes drop the redo steps
+        if (mRedo.isEmpty())
+            return null;
+
+        Step step = mRedo.removeLast();
+        apply(step, false);
+        push(step);
+        return mGeometry;
+    }
+
+
+    protected void push(Step step)
+    {
+        mUndo.addLast(step);
+        mSize += step.getSize();
+        if (mSize > mBudget)
+            compact();
+    }
+
+
+    protected void compact()
+    {
+        // a drag of one vertex in several passes becomes one step
+        Step previous = null;
+        for (Iterator<Step> it = mUndo.iterator(); it.hasNext(); ) {
+            Step step = it.next();
+            if (null != previous && previous.isSameVertexMove(step)) {
+                Splice last = step.mSplices.get(0);
+                previous.mSplices.get(0).mInserted = last.mInserted;
+                mSize -= step.getSize();
+                it.remove();
+                continue;
+            }
+
+            previous = step;
+        }
+
+        while (mSize > mBudget && mUndo.size() > 1) {
+            mSize -= mUndo.removeFirst().getSize();
+        }
+    }
+
+
+    protected void apply(
+            Step step,
+            boolean undo)
+    {
+        if (null != step.mBefore) {
+            try {
+                mGeometry = GeometryCodec.fromBlob(undo ? step.mBefore : step.mAfter);
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+            mShape = getShape(mGeometry);
+            mState = getState(mGeometry);
+            return;
+        }
+
+        List<Part> parts = getParts(mGeometry);
+        // later splices first, indexes of earlier ones stay valid
+        for (int i = step.mSplices.size() - 1; i >= 0; i--) {
+            Splice splice = step.mSplices.get(i);
+            double[] from = undo ? splice.mInserted : splice.mRemoved;
+            double[] to = undo ? splice.mRemoved : splice.mInserted;
+
+            parts.get(splice.mPart).splice(splice.mStart, from.length / 2, to, mGeometry.getCRS());
+            mState.set(splice.mPart, splice(mState.get(splice.mPart), splice.mStart, from.length, to));
+        }
+    }
+
+
+    /**
+     * Compare the geometry with the recorded state and bring the state up to date
+     *
+     * @return the step or null if nothing changed
+     */
+    protected Step diff(GeoGeometry geometry)
+    {
+        int[] shape = getShape(geometry);
+        if (!Arrays.equals(mShape, shape)) {
+            GeoGeometry before = new Builder(mShape, mState).build();
+            GeometryCodec.setCRS(before, geometry.getCRS());
+            Step step = new Step(GeometryCodec.toBlob(before), GeometryCodec.toBlob(geometry));
+            mShape = shape;
+            mState = getState(geometry);
+            return step;
+        }
+
+        Step step = new Step();
+        List<Part> parts = getParts(geometry);
+        for (int part = 0; part < parts.size(); part++) {
+            double[] state = mState.get(part);
+            Splice splice = parts.get(part).diff(part, state);
+            if (null == splice)
+                continue;
+
+            step.mSplices.add(splice);
+            mState.set(part, splice(state, splice.mStart, splice.mRemoved.length, splice.mInserted));
+        }
+
+        return step.mSplices.isEmpty() ? null : step;
+    }
+
+
+    protected static double[] splice(
+            double[] values,
+            int start,
+            int removed,
+            double[] inserted)
+    {
+        int from = start * 2;
+        if (removed == inserted.length) {
+            System.arraycopy(inserted, 0, values, from, inserted.length);
+            return values;
+        }
+
+        double[] result = new double[values.length - removed + inserted.length];
+        System.arraycopy(values, 0, result, 0, from);
+        System.arraycopy(inserted, 0, result, from, inserted.length);
+        System.arraycopy(values, from + removed, result, from + inserted.length,
+                values.length - from - removed);
+        return result;
+    }
+
+
+    protected static List<double[]> getState(GeoGeometry geometry)
+    {
+        List<double[]> state = new ArrayList<>();
+        for (Part part : getParts(geometry)) {
+            state.add(part.getCoordinates(0, part.getCount()));
+        }
+
+        return state;
+    }
+
+
+    /**
+     * Geometry types in walk order, followed by the ring count for a polygon and the size for a
+     * collection
+     */
+    protected static int[] getShape(GeoGeometry geometry)
+    {
+        List<Integer> shape = new ArrayList<>();
+        addShape(geometry, shape);
+
+        int[] result = new int[shape.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = shape.get(i);
+        }
+
+        return result;
+    }
+
+
+    protected static void addShape(
+            GeoGeometry geometry,
+            List<Integer> shape)
+    {
+        shape.add(geometry.getType());
+        if (geometry instanceof GeoPolygon) {
+            shape.add(((GeoPolygon) geometry).getInnerRingCount() + 1);
+        } else if (geometry instanceof GeoGeometryCollection) {
+            GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+            shape.add(collection.size());
+            for (int i = 0; i < collection.size(); i++) {
+                addShape(collection.get(i), shape);
+            }
+        }
+    }
+
+
+    protected static List<Part> getParts(GeoGeometry geometry)
+    {
+        List<Part> parts = new ArrayList<>();
+        addParts(geometry, parts);
+        return parts;
+    }
+
+
+    protected static void addParts(
+            GeoGeometry geometry,
+            List<Part> parts)
+    {
+        if (geometry instanceof GeoPoint) {
+            parts.add(new Part((GeoPoint) geometry));
+        } else if (geometry instanceof GeoLineString) {
+            parts.add(new Part(((GeoLineString) geometry).getPoints()));
+        } else if (geometry instanceof GeoPolygon) {
+            GeoPolygon polygon = (GeoPolygon) geometry;
+            parts.add(new Part(polygon.getOuterRing().getPoints()));
+            for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+                parts.add(new Part(polygon.getInnerRing(i).getPoints()));
+            }
+        } else if (geometry instanceof GeoGeometryCollection) {
+            GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+            for (int i = 0; i < collection.size(); i++) {
+                addParts(collection.get(i), parts);
+            }
+        }
+    }
+
+
+    /**
+     * A point or a vertex list of the geometry
+     */
+    protected static class Part
+    {
+        protected final GeoPoint       mPoint;
+        protected final List<GeoPoint> mPoints;
+
+
+        public Part(GeoPoint point)
+        {
+            mPoint = point;
+            mPoints = null;
+        }
+
+
+        public Part(List<GeoPoint> points)
+        {
+            mPoint = null;
+            mPoints = points;
+        }
+
+
+        public int getCount()
+        {
+            return null == mPoints ? 1 : mPoints.size();
+        }
+
+
+        public GeoPoint getPoint(int vertex)
+        {
+            return null == mPoints ? mPoint : mPoints.get(vertex);
+        }
+
+
+        /**
+         * Coordinates of the vertices [start, end)
+         */
+        public double[] getCoordinates(
+                int start,
+                int end)
+        {
+            double[] coordinates = new double[(end - start) * 2];
+            for (int i = start; i < end; i++) {
+                GeoPoint point = getPoint(i);
+                coordinates[(i - start) * 2] = point.getX();
+                coordinates[(i - start) * 2 + 1] = point.getY();
+            }
+
+            return coordinates;
+        }
+
+
+        /**
+         * @return the changed vertex run against the recorded coordinates or null if there is none
+         */
+        public Splice diff(
+                int part,
+                double[] state)
+        {
+            int count = getCount(), recorded = state.length / 2;
+            int max = Math.min(count, recorded);
+            int prefix = 0;
+            while (prefix < max && isSame(prefix, state, prefix)) {
+                prefix++;
+            }
+            if (prefix == count && count == recorded)
+                return null;
+
+            int suffix = 0;
+            while (suffix < max - prefix &&
+                    isSame(count - 1 - suffix, state, recorded - 1 - suffix)) {
+                suffix++;
+            }
+
+            return new Splice(part, prefix,
+                    Arrays.copyOfRange(state, prefix * 2, (recorded - suffix) * 2),
+                    getCoordinates(prefix, count - suffix));
+        }
+
+
+        protected boolean isSame(
+                int vertex,
+                double[] state,
+                int recorded)
+        {
+            GeoPoint point = getPoint(vertex);
+            return point.getX() == state[recorded * 2] && point.getY() == state[recorded * 2 + 1];
+        }
+
+
+        /**
+         * Replace count vertices from start with the given coordinates
+         */
+        public void splice(
+                int start,
+                int count,
+                double[] coordinates,
+                int crs)
+        {
+            if (null != mPoint) {
+                if (coordinates.length == 2)
+                    mPoint.setCoordinates(coordinates[0], coordinates[1]);
+                return;
+            }
+
+            int common = Math.min(count, coordinates.length / 2);
+            for (int i = 0; i < common; i++) {
+                mPoints.get(start + i).setCoordinates(coordinates[i * 2], coordinates[i * 2 + 1]);
+            }
+
+            for (int i = common; i < count; i++) {
+                mPoints.remove(start + common);
+            }
+
+            for (int i = common; i < coordinates.length / 2; i++) {
+                GeoPoint point = new GeoPoint(coordinates[i * 2], coordinates[i * 2 + 1]);
+                point.setCRS(crs);
+                mPoints.add(start + i, point);
+            }
+        }
+    }
+
+
+    /**
+     * Makes the geometry of a recorded structure and coordinates
+     */
+    protected static class Builder
+    {
+        protected final int[]          mShape;
+        protected final List<double[]> mState;
+        protected int                  mNode, mPart;
+
+
+        public Builder(
+                int[] shape,
+                List<double[]> state)
+        {
+            mShape = shape;
+            mState = state;
+        }
+
+
+        public GeoGeometry build()
+        {
+            int type = mShape[mNode++];
+            switch (type) {
+                case GTPoint:
+                    double[] coordinates = mState.get(mPart++);
+                    return new GeoPoint(coordinates[0], coordinates[1]);
+                case GTLineString:
+                    return addPoints(new GeoLineString());
+                case GTLinearRing:
+                    return addPoints(new GeoLinearRing());
+                case GTPolygon:
+                    GeoPolygon polygon = new GeoPolygon();
+                    int rings = mShape[mNode++];
+                    for (int i = 0; i < rings; i++) {
+                        if (i == 0)
+                            addPoints(polygon.getOuterRing());
+                        else
+                            polygon.addInnerRing((GeoLinearRing) addPoints(new GeoLinearRing()));
+                    }
+                    return polygon;
+                case GTMultiPoint:
+                    return addChildren(new GeoMultiPoint());
+                case GTMultiLineString:
+                    return addChildren(new GeoMultiLineString());
+                case GTMultiPolygon:
+                    return addChildren(new GeoMultiPolygon());
+                default:
+                    throw new IllegalArgumentException("Unsupported geometry type " + type);
+            }
+        }
+
+
+        protected GeoLineString addPoints(GeoLineString line)
+        {
+            double[] coordinates = mState.get(mPart++);
+            for (int i = 0; i < coordinates.length; i += 2) {
+                line.add(new GeoPoint(coordinates[i], coordinates[i + 1]));
+            }
+
+            return line;
+        }
+
+
+        protected GeoGeometryCollection addChildren(GeoGeometryCollection collection)
+        {
+            int size = mShape[mNode++];
+            for (int i = 0; i < size; i++) {
+                collection.add(build());
+            }
+
+            return collection;
+        }
+    }
+
+
+    protected static class Splice
+    {
+        protected final int      mPart;
+        protected final int      mStart; // vertex
+        protected final double[] mRemoved;
+        protected double[]       mInserted;
+
+
+        public Splice(
+                int part,
+                int start,
+                double[] removed,
+                double[] inserted)
+        {
+            mPart = part;
+            mStart = start;
+            mRemoved = removed;
+            mInserted = inserted;
+        }
+    }
+
+
+    protected static class Step
+    {
+        protected final List<Splice> mSplices;
+        protected final byte[]       mBefore, mAfter; // parts added or removed
+
+
+        public Step()
+        {
+            mSplices = new ArrayList<>(1);
+            mBefore = mAfter = null;
+        }
+
+
+        public Step(
+                byte[] before,
+                byte[] after)
+        {
+            mSplices = new ArrayList<>(0);
+            mBefore = before;
+            mAfter = after;
+        }
+
+
+        public int getSize()
+        {
+            if (null != mBefore)
+                return (mBefore.length + mAfter.length) / 8;
+
+            int size = 0;
+            for (Splice splice : mSplices) {
+                size += splice.mRemoved.length + splice.mInserted.length;
+            }
+
+            return size;
+        }
+
+
+        public boolean isSameVertexMove(Step next)
+        {
+            if (mSplices.size() != 1 || next.mSplices.size() != 1)
+                return false;
+
+            Splice a = mSplices.get(0), b = next.mSplices.get(0);
+            return a.mPart == b.mPart && a.mStart == b.mStart && a.mRemoved.length == 2 &&
+                    a.mInserted.length == 2 && b.mRemoved.length == 2 && b.mInserted.length == 2;
+        }
+    }
+}
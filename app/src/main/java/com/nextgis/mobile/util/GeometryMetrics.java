@@ -0,0 +1,118 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoMultiLineString;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+
+/**
+ * Derived values of a feature geometry shown in the attributes panel
+ */
+public class GeometryMetrics
+{
+    protected final double mMinX, mMinY, mMaxX, mMaxY;
+    protected final double mLength;
+    protected final double mArea;
+    protected final double mPerimeter;
+
+
+    public GeometryMetrics(
+            double minX,
+            double minY,
+            double maxX,
+            double maxY,
+            double length,
+            double area,
+            double perimeter)
+    {
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = maxX;
+        mMaxY = maxY;
+        mLength = length;
+        mArea = area;
+        mPerimeter = perimeter;
+    }
+
+
+    public static GeometryMetrics compute(GeoGeometry geometry)
+    {
+        double length = 0, area = 0, perimeter = 0;
+
+        if (geometry instanceof GeoLineString) {
+            length = ((GeoLineString) geometry).getLength();
+        } else if (geometry instanceof GeoMultiLineString) {
+            length = ((GeoMultiLineString) geometry).getLength();
+        } else if (geometry instanceof GeoPolygon) {
+            area = ((GeoPolygon) geometry).getArea();
+            perimeter = ((GeoPolygon) geometry).getPerimeter();
+        } else if (geometry instanceof GeoMultiPolygon) {
+            area = ((GeoMultiPolygon) geometry).getArea();
+            perimeter = ((GeoMultiPolygon) geometry).getPerimeter();
+        }
+
+        GeoEnvelope env = geometry.getEnvelope();
+        return new GeometryMetrics(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(),
+                length, area, perimeter);
+    }
+
+
+    public GeoEnvelope getEnvelope()
+    {
+        return new GeoEnvelope(mMinX, mMaxX, mMinY, mMaxY);
+    }
+
+
+    /**
+     * @return the envelope center, the point itself for points
+     */
+    public GeoPoint getCenter()
+    {
+        return new GeoPoint((mMinX + mMaxX) / 2, (mMinY + mMaxY) / 2);
+    }
+
+
+    public double getLength()
+    {
+        return mLength;
+    }
+
+
+    public double getArea()
+    {
+        return mArea;
+    }
+
+
+    public double getPerimeter()
+    {
+        return mPerimeter;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+
+import com.nextgis.maplib.api.IGISApplication;
+import com.nextgis.maplib.datasource.GeoGeometry;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+
+/**
+ * Geometry metrics computed once per geometry version. Rows are keyed by layer and feature id and
+ * stamped with the checksum of the geometry blob they were computed from. A row is checked against
+ * the blob once per process; after that it is trusted until the layer content provider reports a
+ * change of the feature, so repeated views do not read the geometry at all. A geometry changed by
+ * any writer (sync, other apps, while the app was not running) just misses the stamp on the next
+ * check and is computed again.
+ */
+public class GeometryMetricsStore
+        extends SQLiteOpenHelper
+{
+    protected static final String DB_NAME    = "geometry_metrics.db";
+    protected static final int    DB_VERSION = 1;
+
+    protected static final String TABLE          = "metrics";
+    protected static final String COLUMN_LAYER   = "layer";
+    protected static final String COLUMN_FEATURE = "feature_id";
+    protected static final String COLUMN_STAMP   = "stamp";
+    protected static final String[] COLUMNS = {
+            COLUMN_STAMP, "min_x", "min_y", "max_x", "max_y", "length", "area", "perimeter"};
+
+    protected final Context                    mContext;
+    protected final String                     mAuthority;
+    protected final ExecutorService            mWriter;
+    // rows checked against the current blob in this process
+    protected final Set<String>                mVerified;
+    protected final Map<String, LayerObserver> mObservers;
+
+
+    public interface BlobLoader
+    {
+        /**
+         * @return the feature geometry blob or null
+         */
+        byte[] load();
+    }
+
+
+    public GeometryMetricsStore(Context context)
+    {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+        mContext = context.getApplicationContext();
+        mAuthority = ((IGISApplication) mContext).getAuthority();
+        mWriter = Executors.newSingleThreadExecutor();
+        mVerified = new HashSet<>();
+        mObservers = new HashMap<>();
+    }
+
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE + " (" +
+                COLUMN_LAYER + " TEXT NOT NULL, " +
+                COLUMN_FEATURE + " INTEGER NOT NULL, " +
+                COLUMN_STAMP + " INTEGER NOT NULL, " +
+                "min_x REAL, min_y REAL, max_x REAL, max_y REAL, " +
+                "length REAL, area REAL, perimeter REAL, " +
+                "PRIMARY KEY (" + COLUMN_LAYER + ", " + COLUMN_FEATURE + "))");
+    }
+
+
+    @Override
+    public void onUpgrade(
+            SQLiteDatabase db,
+            int oldVersion,
+            int newVersion)
+    {
+        // a cache only, just start over
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+
+    /**
+     * Metrics of the feature geometry, read from the store or computed and stored. The blob is
+     * loaded only if the stored row is not known to be current. Should not be called on the main
+     * thread.
+     *
+     * @return metrics or null if the geometry can not be read
+     */
+    public GeometryMetrics get(
+            String layer,
+            long featureId,
+            BlobLoader loader)
+    {
+        observe(layer);
+
+        String key = getKey(layer, featureId);
+        if (isVerified(key)) {
+            GeometryMetrics metrics = read(layer, featureId, null);
+            if (null != metrics)
+                return metrics;
+        }
+
+        byte[] blob = loader.load();
+        if (null == blob)
+            return null;
+
+        long stamp = getStamp(blob);
+        GeometryMetrics metrics = read(layer, featureId, stamp);
+        if (null == metrics) {
+            try {
+                GeoGeometry geometry = GeometryCodec.fromBlob(blob);
+                if (null == geometry)
+                    return null;
+
+                metrics = GeometryMetrics.compute(geometry);
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            write(layer, featureId, stamp, metrics);
+        }
+
+        setVerified(key, true);
+        return metrics;
+    }
+
+
+    /**
+     * Store metrics of the geometry just written, called from the app write paths after the write
+     * succeeded. The metrics are computed and stored in background.
+     */
+    public void put(
+            final String layer,
+            final long featureId,
+            final byte[] blob,
+            final GeoGeometry geometry)
+    {
+        if (null == blob || null == geometry)
+            return;
+
+        observe(layer);
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(layer, featureId, getStamp(blob), GeometryMetrics.compute(geometry));
+                setVerified(getKey(layer, featureId), true);
+            }
+        });
+    }
+
+
+    public void removeLayer(final String layer)
+    {
+        forgetLayer(layer);
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    getWritableDatabase().delete(TABLE, COLUMN_LAYER + " = ?", new String[] {layer});
+                } catch (SQLiteException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+
+    protected String getKey(
+            String layer,
+            long featureId)
+    {
+        return layer + ":" + featureId;
+    }
+
+
+    protected boolean isVerified(String key)
+    {
+        synchronized (mVerified) {
+            return mVerified.contains(key);
+        }
+    }
+
+
+    protected void setVerified(
+            String key,
+            boolean verified)
+    {
+        synchronized (mVerified) {
+            if (verified)
+                mVerified.add(key);
+            else
+                mVerified.remove(key);
+        }
+    }
+
+
+    protected void forgetLayer(String layer)
+    {
+        String prefix = layer + ":";
+        synchronized (mVerified) {
+            Iterator<String> iterator = mVerified.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(prefix))
+                    iterator.remove();
+            }
+        }
+    }
+
+
+    protected void observe(String layer)
+    {
+        synchronized (mObservers) {
+            if (mObservers.containsKey(layer))
+                return;
+
+            LayerObserver observer = new LayerObserver(layer);
+            mObservers.put(layer, observer);
+            Uri uri = Uri.parse("content://" + mAuthority + "/" + layer);
+            mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        }
+    }
+
+
+    /**
+     * @param stamp the stamp the row should have or null to take any row
+     */
+    protected GeometryMetrics read(
+            String layer,
+            long featureId,
+            Long stamp)
+    {
+        Cursor cursor;
+        try {
+            cursor = getReadableDatabase().query(TABLE, COLUMNS,
+                    COLUMN_LAYER + " = ? AND " + COLUMN_FEATURE + " = ?",
+                    new String[] {layer, featureId + ""}, null, null, null);
+        } catch (SQLiteException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        GeometryMetrics metrics = null;
+        if (cursor.moveToFirst() && (null == stamp || cursor.getLong(0) == stamp))
+            metrics = new GeometryMetrics(cursor.getDouble(1), cursor.getDouble(2),
+                    cursor.getDouble(3), cursor.getDouble(4), cursor.getDouble(5),
+                    cursor.getDouble(6), cursor.getDouble(7));
+
+        cursor.close();
+        return metrics;
+    }
+
+
+    protected void write(
+            String layer,
+            long featureId,
+            long stamp,
+            GeometryMetrics metrics)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_LAYER, layer);
+        values.put(COLUMN_FEATURE, featureId);
+        values.put(COLUMN_STAMP, stamp);
+        values.put("min_x", metrics.mMinX);
+        values.put("min_y", metrics.mMinY);
+        values.put("max_x", metrics.mMaxX);
+        values.put("max_y", metrics.mMaxY);
+        values.put("length", metrics.getLength());
+        values.put("area", metrics.getArea());
+        values.put("perimeter", metrics.getPerimeter());
+
+        try {
+            getWritableDatabase().insertWithOnConflict(TABLE, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Blob length in the high word, CRC32 in the low one
+     */
+    protected static long getStamp(byte[] blob)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(blob, 0, blob.length);
+        return ((long) blob.length << 32) | crc.getValue();
+    }
+
+
+    /**
+     * A changed feature is checked against its blob again on the next use
+     */
+    protected class LayerObserver
+            extends ContentObserver
+    {
+        protected final String mLayer;
+
+
+        public LayerObserver(String layer)
+        {
+            super(null);
+            mLayer = layer;
+        }
+
+
+        @Override
+        public void onChange(boolean selfChange)
+        {
+            onChange(selfChange, null);
+        }
+
+
+        @Override
+        public void onChange(
+                boolean selfChange,
+                Uri uri)
+        {
+            if (null != uri && uri.getPathSegments().size() == 2) {
+                try {
+                    setVerified(getKey(mLayer, Long.parseLong(uri.getLastPathSegment())), false);
+                    return;
+                } catch (NumberFormatException e) {
+                    // not a feature uri, forget the layer
+                }
+            }
+
+            forgetLayer(mLayer);
+        }
+    }
+}
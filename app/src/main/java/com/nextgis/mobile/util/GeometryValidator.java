@@ -0,0 +1,609 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Polygon validation: no ring touches or crosses itself, different rings and parts may touch in
+ * single points but do not cross or share edges, every hole lies inside its outer ring.
+ * <p>
+ * Rings are split into monotone chains (segments going in the same quadrant) which can not cross
+ * themselves. Chains are swept by x and only chains with overlapping envelopes are compared, by
+ * halving them down to single segments, so a walked polygon costs about n log n instead of the
+ * n^2 pairwise check.
+ */
+public class GeometryValidator
+{
+    public static final int ERROR_NONE              = 0;
+    public static final int ERROR_SELF_INTERSECTION = 1;
+    public static final int ERROR_RING_OUTSIDE      = 2;
+
+    protected static final int PROGRESS_STEP = 64; // chains
+
+
+    public interface ProgressListener
+    {
+        void onProgress(int done, int total);
+
+        boolean isCanceled();
+    }
+
+
+    public static int getVertexCount(GeoGeometry geometry)
+    {
+        int count = 0;
+        for (Ring ring : getRings(geometry)) {
+            count += ring.mCount;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @param listener progress listener or null
+     * @return validation result, null if canceled
+     */
+    public static Result validate(
+            GeoGeometry geometry,
+            ProgressListener listener)
+    {
+        List<Ring> rings = getRings(geometry);
+        List<Chain> chains = new ArrayList<>();
+        for (Ring ring : rings) {
+            addChains(ring, chains);
+        }
+
+        Collections.sort(chains, CHAIN_COMPARATOR);
+
+        List<Chain> active = new ArrayList<>();
+        for (int i = 0; i < chains.size(); i++) {
+            if (null != listener && i % PROGRESS_STEP == 0) {
+                if (listener.isCanceled())
+                    return null;
+                listener.onProgress(i, chains.size());
+            }
+
+            Chain chain = chains.get(i);
+            for (int j = active.size() - 1; j >= 0; j--) {
+                Chain other = active.get(j);
+                if (other.mMaxX < chain.mMinX) {
+                    active.set(j, active.get(active.size() - 1));
+                    active.remove(active.size() - 1);
+                    continue;
+                }
+
+                Result result = overlap(chain, chain.mStart, chain.mEnd, other, other.mStart, other.mEnd);
+                if (null != result)
+                    return result;
+            }
+
+            active.add(chain);
+        }
+
+        for (Ring ring : rings) {
+            if (ring.mIndex == 0)
+                continue;
+
+            Ring outer = null;
+            for (Ring candidate : rings) {
+                if (candidate.mPolygon == ring.mPolygon && candidate.mIndex == 0)
+                    outer = candidate;
+            }
+
+            if (null != outer && !isInside(ring, outer))
+                return new Result(ERROR_RING_OUTSIDE, ring, 0);
+        }
+
+        if (null != listener)
+            listener.onProgress(chains.size(), chains.size());
+
+        return new Result(ERROR_NONE, null, 0);
+    }
+
+
+    /**
+     * Compare the segments [start, end) of the chains
+     */
+    protected static Result overlap(
+            Chain a,
+            int aStart,
+            int aEnd,
+            Chain b,
+            int bStart,
+            int bEnd)
+    {
+        Ring ra = a.mRing, rb = b.mRing;
+        // monotone, so the end points make the envelope
+        if (Math.min(ra.mX[aStart], ra.getX(aEnd)) > Math.max(rb.mX[bStart], rb.getX(bEnd)) ||
+                Math.max(ra.mX[aStart], ra.getX(aEnd)) < Math.min(rb.mX[bStart], rb.getX(bEnd)) ||
+                Math.min(ra.mY[aStart], ra.getY(aEnd)) > Math.max(rb.mY[bStart], rb.getY(bEnd)) ||
+                Math.max(ra.mY[aStart], ra.getY(aEnd)) < Math.min(rb.mY[bStart], rb.getY(bEnd)))
+            return null;
+
+        if (aEnd - aStart == 1 && bEnd - bStart == 1)
+            return intersects(ra, aStart, rb, bStart) ? new Result(ERROR_SELF_INTERSECTION, ra, aStart) : null;
+
+        Result result;
+        if (aEnd - aStart >= bEnd - bStart) {
+            int mid = (aStart + aEnd) / 2;
+            result = overlap(a, aStart, mid, b, bStart, bEnd);
+            if (null == result)
+                result = overlap(a, mid, aEnd, b, bStart, bEnd);
+        } else {
+            int mid = (bStart + bEnd) / 2;
+            result = overlap(a, aStart, aEnd, b, bStart, mid);
+            if (null == result)
+                result = overlap(a, aStart, aEnd, b, mid, bEnd);
+        }
+
+        return result;
+    }
+
+
+    protected static boolean intersects(
+            Ring ra,
+            int i,
+            Ring rb,
+            int j)
+    {
+        double ax = ra.mX[i], ay = ra.mY[i], bx = ra.getX(i + 1), by = ra.getY(i + 1);
+        double cx = rb.mX[j], cy = rb.mY[j], dx = rb.getX(j + 1), dy = rb.getY(j + 1);
+
+        if (ra == rb && i != j) {
+            // neighbours share a vertex, only a fold back over the other one counts
+            if (ra.next(i) == j)
+                return onSegment(ax, ay, bx, by, dx, dy) || onSegment(cx, cy, dx, dy, ax, ay);
+            if (ra.next(j) == i)
+                return onSegment(cx, cy, dx, dy, bx, by) || onSegment(ax, ay, bx, by, cx, cy);
+        }
+
+        double d1 = orientation(cx, cy, dx, dy, ax, ay);
+        double d2 = orientation(cx, cy, dx, dy, bx, by);
+        double d3 = orientation(ax, ay, bx, by, cx, cy);
+        double d4 = orientation(ax, ay, bx, by, dx, dy);
+
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0)))
+            return true;
+
+        if (ra == rb)
+            return d1 == 0 && within(cx, cy, dx, dy, ax, ay) ||
+                    d2 == 0 && within(cx, cy, dx, dy, bx, by) ||
+                    d3 == 0 && within(ax, ay, bx, by, cx, cy) ||
+                    d4 == 0 && within(ax, ay, bx, by, dx, dy);
+
+        // different rings may touch, but not pass through each other at the touch point
+        return d1 == 0 && within(cx, cy, dx, dy, ax, ay) && crosses(ra, i, rb, j, ax, ay) ||
+                d2 == 0 && within(cx, cy, dx, dy, bx, by) && crosses(ra, i, rb, j, bx, by) ||
+                d3 == 0 && within(ax, ay, bx, by, cx, cy) && crosses(ra, i, rb, j, cx, cy) ||
+                d4 == 0 && within(ax, ay, bx, by, dx, dy) && crosses(ra, i, rb, j, dx, dy);
+    }
+
+
+    /**
+     * Rings touching in the point p cross or overlap there: an edge of one ring leaves p along an
+     * edge of the other, or the edges of one ring lie on both sides of the other one
+     */
+    protected static boolean crosses(
+            Ring ra,
+            int i,
+            Ring rb,
+            int j,
+            double px,
+            double py)
+    {
+        double[] a = getEdges(ra, i, px, py);
+        double[] b = getEdges(rb, j, px, py);
+        for (int k = 0; k < 4; k += 2) {
+            for (int l = 0; l < 4; l += 2) {
+                if (a[k] * b[l + 1] - a[k + 1] * b[l] == 0 && a[k] * b[l] + a[k + 1] * b[l + 1] > 0)
+                    return true;
+            }
+        }
+
+        double from = Math.atan2(a[1], a[0]), to = Math.atan2(a[3], a[2]);
+        return isBetween(from, to, Math.atan2(b[1], b[0])) !=
+                isBetween(from, to, Math.atan2(b[3], b[2]));
+    }
+
+
+    /**
+     * The two ring edges leaving the point p, which lies on the segment, as x1, y1, x2, y2 vectors
+     */
+    protected static double[] getEdges(
+            Ring ring,
+            int segment,
+            double px,
+            double py)
+    {
+        int from = segment, to = segment + 1;
+        if (px == ring.mX[segment] && py == ring.mY[segment])
+            from = segment + ring.mCount - 1;
+        else if (px == ring.getX(segment + 1) && py == ring.getY(segment + 1))
+            to = segment + 2;
+
+        return new double[] {ring.getX(from) - px, ring.getY(from) - py, ring.getX(to) - px,
+                ring.getY(to) - py};
+    }
+
+
+    /**
+     * The angle lies counterclockwise from the angle from and before the angle to
+     */
+    protected static boolean isBetween(
+            double from,
+            double to,
+            double angle)
+    {
+        return normalize(angle - from) < normalize(to - from);
+    }
+
+
+    protected static double normalize(double angle)
+    {
+        return angle < 0 ? angle + Math.PI * 2 : angle;
+    }
+
+
+    /**
+     * Rings do not cross, so any hole point off the outer ring tells the side
+     */
+    protected static boolean isInside(
+            Ring hole,
+            Ring outer)
+    {
+        for (int i = 0; i < hole.mCount; i++) {
+            if (!outer.touches(hole.mX[i], hole.mY[i]))
+                return outer.contains(hole.mX[i], hole.mY[i]);
+        }
+
+        for (int i = 0; i < hole.mCount; i++) {
+            double x = (hole.mX[i] + hole.getX(i + 1)) / 2, y = (hole.mY[i] + hole.getY(i + 1)) / 2;
+            if (!outer.touches(x, y))
+                return outer.contains(x, y);
+        }
+
+        return false;
+    }
+
+
+    protected static double orientation(
+            double ax,
+            double ay,
+            double bx,
+            double by,
+            double cx,
+            double cy)
+    {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+
+    /**
+     * Point p lies on the segment ab and is not its end b
+     */
+    protected static boolean onSegment(
+            double ax,
+            double ay,
+            double bx,
+            double by,
+            double px,
+            double py)
+    {
+        return !(px == bx && py == by) && orientation(ax, ay, bx, by, px, py) == 0 &&
+                within(ax, ay, bx, by, px, py);
+    }
+
+
+    protected static boolean within(
+            double ax,
+            double ay,
+            double bx,
+            double by,
+            double px,
+            double py)
+    {
+        return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py &&
+                py <= Math.max(ay, by);
+    }
+
+
+    protected static List<Ring> getRings(GeoGeometry geometry)
+    {
+        List<Ring> rings = new ArrayList<>();
+        if (geometry instanceof GeoPolygon) {
+            addRings((GeoPolygon) geometry, 0, rings);
+        } else if (geometry instanceof GeoMultiPolygon) {
+            GeoMultiPolygon multiPolygon = (GeoMultiPolygon) geometry;
+            for (int i = 0; i < multiPolygon.size(); i++) {
+                addRings((GeoPolygon) multiPolygon.get(i), i, rings);
+            }
+        }
+
+        return rings;
+    }
+
+
+    protected static void addRings(
+            GeoPolygon polygon,
+            int index,
+            List<Ring> rings)
+    {
+        addRing(polygon.getOuterRing(), index, 0, rings);
+        for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+            addRing(polygon.getInnerRing(i), index, i + 1, rings);
+        }
+    }
+
+
+    protected static void addRing(
+            GeoLinearRing ring,
+            int polygon,
+            int index,
+            List<Ring> rings)
+    {
+        List<GeoPoint> points = ring.getPoints();
+        double[] x = new double[points.size()];
+        double[] y = new double[points.size()];
+        int count = 0;
+        for (GeoPoint point : points) {
+            // repeated vertices (a stop while walking) make zero length segments, drop them
+            if (count > 0 && x[count - 1] == point.getX() && y[count - 1] == point.getY())
+                continue;
+
+            x[count] = point.getX();
+            y[count] = point.getY();
+            count++;
+        }
+
+        if (count > 1 && x[0] == x[count - 1] && y[0] == y[count - 1])
+            count--; // closed explicitly
+
+        if (count < 3)
+            return;
+
+        rings.add(new Ring(polygon, index, x, y, count));
+    }
+
+
+    protected static void addChains(
+            Ring ring,
+            List<Chain> chains)
+    {
+        int start = 0;
+        int quadrant = ring.getQuadrant(0);
+        for (int i = 1; i < ring.mCount; i++) {
+            int next = ring.getQuadrant(i);
+            if (next != quadrant) {
+                chains.add(new Chain(ring, start, i));
+                start = i;
+                quadrant = next;
+            }
+        }
+
+        chains.add(new Chain(ring, start, ring.mCount));
+    }
+
+
+    protected static final Comparator<Chain> CHAIN_COMPARATOR = new Comparator<Chain>()
+    {
+        @Override
+        public int compare(
+                Chain lhs,
+                Chain rhs)
+        {
+            return Double.compare(lhs.mMinX, rhs.mMinX);
+        }
+    };
+
+
+    /**
+     * Ring vertices without the closing one, segment i goes from vertex i to vertex i + 1
+     */
+    protected static class Ring
+    {
+        protected final int      mPolygon;
+        protected final int      mIndex;
+        protected final double[] mX, mY;
+        protected final int      mCount;
+
+
+        public Ring(
+                int polygon,
+                int index,
+                double[] x,
+                double[] y,
+                int count)
+        {
+            mPolygon = polygon;
+            mIndex = index;
+            mX = x;
+            mY = y;
+            mCount = count;
+        }
+
+
+        public double getX(int vertex)
+        {
+            return mX[vertex % mCount];
+        }
+
+
+        public double getY(int vertex)
+        {
+            return mY[vertex % mCount];
+        }
+
+
+        public int next(int segment)
+        {
+            return (segment + 1) % mCount;
+        }
+
+
+        public int getQuadrant(int segment)
+        {
+            double dx = getX(segment + 1) - mX[segment];
+            double dy = getY(segment + 1) - mY[segment];
+            if (dx >= 0)
+                return dy >= 0 ? 0 : 3;
+            return dy >= 0 ? 1 : 2;
+        }
+
+
+        public boolean touches(
+                double x,
+                double y)
+        {
+            for (int i = 0; i < mCount; i++) {
+                if (orientation(mX[i], mY[i], getX(i + 1), getY(i + 1), x, y) == 0 &&
+                        within(mX[i], mY[i], getX(i + 1), getY(i + 1), x, y))
+                    return true;
+            }
+
+            return false;
+        }
+
+
+        public boolean contains(
+                double x,
+                double y)
+        {
+            boolean inside = false;
+            for (int i = 0, j = mCount - 1; i < mCount; j = i++) {
+                if ((mY[i] > y) != (mY[j] > y) &&
+                        x < (mX[j] - mX[i]) * (y - mY[i]) / (mY[j] - mY[i]) + mX[i])
+                    inside = !inside;
+            }
+
+            return inside;
+        }
+    }
+
+
+    protected static class Chain
+    {
+        protected final Ring   mRing;
+        protected final int    mStart, mEnd; // segments
+        protected final double mMinX, mMaxX;
+
+
+        public Chain(
+                Ring ring,
+                int start,
+                int end)
+        {
+            mRing = ring;
+            mStart = start;
+            mEnd = end;
+            mMinX = Math.min(ring.mX[start], ring.getX(end));
+            mMaxX = Math.max(ring.mX[start], ring.getX(end));
+        }
+    }
+
+
+    public static class Result
+    {
+        protected final int      mError;
+        protected final int      mPolygon;
+        protected final int      mRing;
+        protected final double[] mSegment;
+
+
+        protected Result(
+                int error,
+                Ring ring,
+                int segment)
+        {
+            mError = error;
+            if (null == ring) {
+                mPolygon = mRing = -1;
+                mSegment = null;
+            } else {
+                mPolygon = ring.mPolygon;
+                mRing = ring.mIndex;
+                mSegment = new double[] {ring.mX[segment], ring.mY[segment],
+                        ring.getX(segment + 1), ring.getY(segment + 1)};
+            }
+        }
+
+
+        public boolean isValid()
+        {
+            return mError == ERROR_NONE;
+        }
+
+
+        public int getError()
+        {
+            return mError;
+        }
+
+
+        /**
+         * @return polygon index in a multi polygon, -1 for a valid geometry
+         */
+        public int getPolygon()
+        {
+            return mPolygon;
+        }
+
+
+        /**
+         * @return 0 for the outer ring, hole index + 1 otherwise
+         */
+        public int getRing()
+        {
+            return mRing;
+        }
+
+
+        /**
+         * @return the offending segment as x1, y1, x2, y2 or null for a valid geometry
+         */
+        public double[] getSegment()
+        {
+            return null == mSegment ? null : Arrays.copyOf(mSegment, 4);
+        }
+
+
+        public GeoPoint getSegmentCenter()
+        {
+            return null == mSegment ? null :
+                    new GeoPoint((mSegment[0] + mSegment[2]) / 2, (mSegment[1] + mSegment[3]) / 2);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Keeps the validity of the geometry under edit. The first call indexes every segment in a
+ * uniform grid, later calls diff the vertices against the last seen ones and re-check only the
+ * segments next to the moved vertices. Any structural change (vertex added or removed, another
+ * geometry) rebuilds the index.
+ */
+public class IncrementalGeometryValidator
+{
+    protected static final int MAX_CELLS_PER_SEGMENT = 16;
+
+    protected GeoGeometry mGeometry;
+    protected List<LiveRing> mRings;
+    protected GeometryValidator.Ring[] mSegmentRings; // by segment id
+    protected int[] mSegmentIndexes;
+
+    protected double                      mCellSize;
+    protected Map<Long, List<Integer>>    mGrid;
+    protected Set<Integer>                mBigSegments;
+    protected Set<Long>                   mConflicts;
+    protected GeometryValidator.Result    mResult;
+
+
+    public void reset()
+    {
+        mGeometry = null;
+        mRings = null;
+        mGrid = null;
+        mConflicts = null;
+        mResult = null;
+    }
+
+
+    public boolean isTracking(GeoGeometry geometry)
+    {
+        return null != mGeometry && geometry == mGeometry;
+    }
+
+
+    /**
+     * Bring the state up to date with the geometry
+     *
+     * @return the validation result
+     */
+    public GeometryValidator.Result update(GeoGeometry geometry)
+    {
+        if (geometry != mGeometry || !updateVertices(geometry))
+            rebuild(geometry);
+
+        return mResult;
+    }
+
+
+    public GeometryValidator.Result getResult()
+    {
+        return mResult;
+    }
+
+
+    protected boolean updateVertices(GeoGeometry geometry)
+    {
+        List<GeoLinearRing> rings = getRings(geometry);
+        rings.removeAll(Collections.singleton((GeoLinearRing) null));
+        if (rings.size() != mRings.size())
+            return false;
+
+        Set<Integer> dirty = new HashSet<>();
+        for (int r = 0; r < rings.size(); r++) {
+            LiveRing live = mRings.get(r);
+            List<GeoPoint> points = rings.get(r).getPoints();
+            int n = points.size();
+            if (n != live.mX.length)
+                return false;
+
+            for (int k = 0; k < n; k++) {
+                GeoPoint point = points.get(k);
+                double x = point.getX(), y = point.getY();
+                if (x == live.mX[k] && y == live.mY[k])
+                    continue;
+
+                if (!moveVertex(live, k, x, y, dirty))
+                    return false;
+            }
+        }
+
+        if (dirty.size() > mSegmentRings.length / 4)
+            return false; // cheaper from scratch
+
+        for (Integer segment : dirty) {
+            for (Iterator<Long> it = mConflicts.iterator(); it.hasNext(); ) {
+                long pair = it.next();
+                if ((int) (pair >>> 32) == segment || (int) pair == segment)
+                    it.remove();
+            }
+        }
+
+        for (Integer segment : dirty) {
+            checkSegment(segment);
+        }
+
+        updateResult();
+        return true;
+    }
+
+
+    /**
+     * @return false if the move changes the ring structure (a vertex becomes or stops being a
+     * duplicate of its neighbour)
+     */
+    protected boolean moveVertex(
+            LiveRing live,
+            int k,
+            double x,
+            double y,
+            Set<Integer> dirty)
+    {
+        int n = live.mX.length;
+        int next = (k + 1) % n, prev = (k - 1 + n) % n;
+        if (live.mCompact[k] < 0 || live.mCompact[next] < 0)
+            return false;
+        if (k == 0 && live.mCompact[n - 1] < 0)
+            return false; // the closing vertex stays behind
+        if (x == live.mX[prev] && y == live.mY[prev] || x == live.mX[next] && y == live.mY[next])
+            return false;
+        if (null == live.mRing)
+            return false;
+
+        GeometryValidator.Ring ring = live.mRing;
+        int c = live.mCompact[k];
+        int before = (c - 1 + ring.mCount) % ring.mCount;
+
+        removeSegment(live.mOffset + before);
+        removeSegment(live.mOffset + c);
+        live.mX[k] = ring.mX[c] = x;
+        live.mY[k] = ring.mY[c] = y;
+        addSegment(live.mOffset + before);
+        addSegment(live.mOffset + c);
+
+        // a touch with another ring is judged by the edges around it, so the outer neighbours too
+        dirty.add(live.mOffset + (c - 2 + ring.mCount) % ring.mCount);
+        dirty.add(live.mOffset + before);
+        dirty.add(live.mOffset + c);
+        dirty.add(live.mOffset + ring.next(c));
+        return true;
+    }
+
+
+    protected void rebuild(GeoGeometry geometry)
+    {
+        mGeometry = geometry;
+        mRings = new ArrayList<>();
+        mGrid = new HashMap<>();
+        mBigSegments = new HashSet<>();
+        mConflicts = new HashSet<>();
+
+        List<GeometryValidator.Ring> compactRings = new ArrayList<>();
+        int polygon = 0, index = 0, segments = 0;
+        double length = 0;
+        for (GeoLinearRing ring : getRings(geometry)) {
+            if (ring == null) { // next polygon
+                polygon++;
+                index = 0;
+                continue;
+            }
+
+            LiveRing live = new LiveRing(ring.getPoints(), polygon, index++, segments);
+            mRings.add(live);
+            if (null != live.mRing) {
+                compactRings.add(live.mRing);
+                segments += live.mRing.mCount;
+                for (int i = 0; i < live.mRing.mCount; i++) {
+                    length += Math.hypot(live.mRing.getX(i + 1) - live.mRing.mX[i],
+                            live.mRing.getY(i + 1) - live.mRing.mY[i]);
+                }
+            }
+        }
+
+        mSegmentRings = new GeometryValidator.Ring[segments];
+        mSegmentIndexes = new int[segments];
+        int id = 0;
+        for (GeometryValidator.Ring ring : compactRings) {
+            for (int i = 0; i < ring.mCount; i++, id++) {
+                mSegmentRings[id] = ring;
+                mSegmentIndexes[id] = i;
+            }
+        }
+
+        mCellSize = segments == 0 ? 1 : Math.max(length / segments * 2, Double.MIN_NORMAL);
+        for (int i = 0; i < segments; i++) {
+            addSegment(i);
+        }
+        for (int i = 0; i < segments; i++) {
+            checkSegment(i);
+        }
+
+        updateResult();
+    }
+
+
+    protected void checkSegment(int segment)
+    {
+        GeometryValidator.Ring ring = mSegmentRings[segment];
+        int i = mSegmentIndexes[segment];
+
+        // a big segment envelope can cover most of the grid, the plain list is cheaper to walk
+        if (mBigSegments.contains(segment)) {
+            for (int other = 0; other < mSegmentRings.length; other++) {
+                checkPair(segment, ring, i, other);
+            }
+            return;
+        }
+
+        Set<Integer> candidates = new HashSet<>(mBigSegments);
+        collectCells(ring, i, candidates, null);
+        for (Integer other : candidates) {
+            checkPair(segment, ring, i, other);
+        }
+    }
+
+
+    protected void checkPair(
+            int segment,
+            GeometryValidator.Ring ring,
+            int i,
+            int other)
+    {
+        if (other == segment)
+            return;
+
+        if (GeometryValidator.intersects(ring, i, mSegmentRings[other], mSegmentIndexes[other])) {
+            long min = Math.min(segment, other), max = Math.max(segment, other);
+            mConflicts.add(min << 32 | max);
+        }
+    }
+
+
+    protected void addSegment(int segment)
+    {
+        GeometryValidator.Ring ring = mSegmentRings[segment];
+        int i = mSegmentIndexes[segment];
+        if (getCellCount(ring, i) > MAX_CELLS_PER_SEGMENT)
+            mBigSegments.add(segment);
+        else
+            collectCells(ring, i, null, segment);
+    }
+
+
+    protected void removeSegment(int segment)
+    {
+        if (mBigSegments.remove(segment))
+            return;
+
+        GeometryValidator.Ring ring = mSegmentRings[segment];
+        int i = mSegmentIndexes[segment];
+        collectCells(ring, i, null, -segment - 1);
+    }
+
+
+    protected long getCellCount(
+            GeometryValidator.Ring ring,
+            int i)
+    {
+        long w = cell(Math.max(ring.mX[i], ring.getX(i + 1))) - cell(Math.min(ring.mX[i], ring.getX(i + 1))) + 1;
+        long h = cell(Math.max(ring.mY[i], ring.getY(i + 1))) - cell(Math.min(ring.mY[i], ring.getY(i + 1))) + 1;
+        return w * h;
+    }
+
+
+    /**
+     * Walk the grid cells under the segment envelope: collect their segments into candidates,
+     * or add the segment (value >= 0), or remove it (value = -segment - 1)
+     */
+    protected void collectCells(
+            GeometryValidator.Ring ring,
+            int i,
+            Set<Integer> candidates,
+            Integer value)
+    {
+        long minX = cell(Math.min(ring.mX[i], ring.getX(i + 1)));
+        long maxX = cell(Math.max(ring.mX[i], ring.getX(i + 1)));
+        long minY = cell(Math.min(ring.mY[i], ring.getY(i + 1)));
+        long maxY = cell(Math.max(ring.mY[i], ring.getY(i + 1)));
+
+        for (long cx = minX; cx <= maxX; cx++) {
+            for (long cy = minY; cy <= maxY; cy++) {
+                Long key = (cx << 32) ^ (cy & 0xffffffffL);
+                List<Integer> cell = mGrid.get(key);
+
+                if (null != candidates) {
+                    if (null != cell)
+                        candidates.addAll(cell);
+                } else if (value >= 0) {
+                    if (null == cell) {
+                        cell = new ArrayList<>(4);
+                        mGrid.put(key, cell);
+                    }
+                    cell.add(value);
+                } else if (null != cell) {
+                    cell.remove(Integer.valueOf(-value - 1));
+                    if (cell.isEmpty())
+                        mGrid.remove(key);
+                }
+            }
+        }
+    }
+
+
+    protected long cell(double value)
+    {
+        return (long) Math.floor(value / mCellSize);
+    }
+
+
+    protected void updateResult()
+    {
+        if (!mConflicts.isEmpty()) {
+            int segment = (int) (mConflicts.iterator().next() >>> 32);
+            mResult = new GeometryValidator.Result(GeometryValidator.ERROR_SELF_INTERSECTION,
+                    mSegmentRings[segment], mSegmentIndexes[segment]);
+            return;
+        }
+
+        GeometryValidator.Ring outer = null;
+        for (LiveRing live : mRings) {
+            GeometryValidator.Ring ring = live.mRing;
+            if (null == ring)
+                continue;
+
+            if (ring.mIndex == 0) {
+                outer = ring;
+            } else if (null != outer && outer.mPolygon == ring.mPolygon &&
+                    !GeometryValidator.isInside(ring, outer)) {
+                mResult = new GeometryValidator.Result(GeometryValidator.ERROR_RING_OUTSIDE, ring, 0);
+                return;
+            }
+        }
+
+        mResult = new GeometryValidator.Result(GeometryValidator.ERROR_NONE, null, 0);
+    }
+
+
+    /**
+     * Rings in order, a null marks the start of the next polygon
+     */
+    protected static List<GeoLinearRing> getRings(GeoGeometry geometry)
+    {
+        List<GeoLinearRing> rings = new ArrayList<>();
+        if (geometry instanceof GeoPolygon) {
+            addRings((GeoPolygon) geometry, rings);
+        } else if (geometry instanceof GeoMultiPolygon) {
+            GeoMultiPolygon multiPolygon = (GeoMultiPolygon) geometry;
+            for (int i = 0; i < multiPolygon.size(); i++) {
+                if (i > 0)
+                    rings.add(null);
+                addRings((GeoPolygon) multiPolygon.get(i), rings);
+            }
+        }
+
+        return rings;
+    }
+
+
+    protected static void addRings(
+            GeoPolygon polygon,
+            List<GeoLinearRing> rings)
+    {
+        rings.add(polygon.getOuterRing());
+        for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+            rings.add(polygon.getInnerRing(i));
+        }
+    }
+
+
+    /**
+     * Last seen vertices of a geometry ring and its compact copy without repeated vertices
+     */
+    protected static class LiveRing
+    {
+        protected final double[]               mX, mY;
+        protected final int[]                  mCompact; // live vertex to ring vertex, -1 if dropped
+        protected final GeometryValidator.Ring mRing; // null if less than 3 vertices
+        protected final int                    mOffset; // id of the first segment
+
+
+        public LiveRing(
+                List<GeoPoint> points,
+                int polygon,
+                int index,
+                int offset)
+        {
+            int n = points.size();
+            mX = new double[n];
+            mY = new double[n];
+            mCompact = new int[n];
+            mOffset = offset;
+
+            double[] x = new double[n];
+            double[] y = new double[n];
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                mX[k] = points.get(k).getX();
+                mY[k] = points.get(k).getY();
+                if (count > 0 && x[count - 1] == mX[k] && y[count - 1] == mY[k]) {
+                    mCompact[k] = -1;
+                    continue;
+                }
+
+                mCompact[k] = count;
+                x[count] = mX[k];
+                y[count] = mY[k];
+                count++;
+            }
+
+            if (count > 1 && x[0] == x[count - 1] && y[0] == y[count - 1]) {
+                count--; // closed explicitly
+                mCompact[n - 1] = -1;
+            }
+
+            mRing = count < 3 ? null : new GeometryValidator.Ring(polygon, index, x, y, count);
+        }
+    }
+}
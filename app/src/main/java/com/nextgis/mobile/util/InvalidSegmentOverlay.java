@@ -0,0 +1,137 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplibui.api.Overlay;
+import com.nextgis.maplibui.mapui.MapViewOverlays;
+
+
+/**
+ * Draws the segment reported by {@link GeometryValidator} on top of the edited feature
+ */
+public class InvalidSegmentOverlay
+        extends Overlay
+{
+    protected static final float STROKE_WIDTH_DP = 6;
+
+    protected final Paint mPaint;
+    protected GeoPoint    mStart;
+    protected GeoPoint    mEnd;
+
+
+    public InvalidSegmentOverlay(
+            Context context,
+            MapViewOverlays mapViewOverlays)
+    {
+        super(context, mapViewOverlays);
+
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setColor(Color.RED);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(context.getResources().getDisplayMetrics().density * STROKE_WIDTH_DP);
+    }
+
+
+    /**
+     * @param segment x1, y1, x2, y2 in map coordinates or null to hide the highlight
+     */
+    public void setSegment(double[] segment)
+    {
+        if (null == segment) {
+            if (null == mStart)
+                return;
+
+            mStart = null;
+            mEnd = null;
+        } else {
+            mStart = new GeoPoint(segment[0], segment[1]);
+            mEnd = new GeoPoint(segment[2], segment[3]);
+        }
+
+        mMapViewOverlays.postInvalidate();
+    }
+
+
+    @Override
+    public void draw(
+            Canvas canvas,
+            MapDrawable mapDrawable)
+    {
+        if (null == mStart)
+            return;
+
+        GeoPoint start = mapDrawable.mapToScreen(mStart);
+        GeoPoint end = mapDrawable.mapToScreen(mEnd);
+        canvas.drawLine((float) start.getX(), (float) start.getY(), (float) end.getX(),
+                (float) end.getY(), mPaint);
+    }
+
+
+    @Override
+    public void drawOnPanning(
+            Canvas canvas,
+            PointF currentMouseOffset)
+    {
+        if (null == mStart)
+            return;
+
+        MapDrawable map = mMapViewOverlays.getMap();
+        GeoPoint start = map.mapToScreen(mStart);
+        GeoPoint end = map.mapToScreen(mEnd);
+        canvas.drawLine((float) start.getX() - currentMouseOffset.x,
+                (float) start.getY() - currentMouseOffset.y,
+                (float) end.getX() - currentMouseOffset.x,
+                (float) end.getY() - currentMouseOffset.y, mPaint);
+    }
+
+
+    @Override
+    public void drawOnZooming(
+            Canvas canvas,
+            PointF currentFocusLocation,
+            float scale)
+    {
+        if (null == mStart)
+            return;
+
+        MapDrawable map = mMapViewOverlays.getMap();
+        GeoPoint start = map.mapToScreen(mStart);
+        GeoPoint end = map.mapToScreen(mEnd);
+        float fx = currentFocusLocation.x;
+        float fy = currentFocusLocation.y;
+        canvas.drawLine((float) (fx + (start.getX() - fx) * scale),
+                (float) (fy + (start.getY() - fy) * scale),
+                (float) (fx + (end.getX() - fx) * scale),
+                (float) (fy + (end.getY() - fy) * scale), mPaint);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import java.util.Locale;
+
+
+/**
+ * Histogram of request latencies with power of two millisecond buckets
+ */
+public class LatencyHistogram
+{
+    protected static final int BUCKETS = 16; // up to 2^15 ms, the last bucket holds the rest
+
+    protected final String mName;
+    protected final long[] mCounts;
+    protected long mTotal, mSum, mMax, mDropped;
+
+
+    public LatencyHistogram(String name)
+    {
+        mName = name;
+        mCounts = new long[BUCKETS];
+    }
+
+
+    public synchronized void record(long millis)
+    {
+        if (millis < 0)
+            millis = 0;
+
+        int bucket = 64 - Long.numberOfLeadingZeros(millis); // 0 -> 0, 1 -> 1, 2..3 -> 2 ...
+        mCounts[Math.min(bucket, BUCKETS - 1)]++;
+        mTotal++;
+        mSum += millis;
+        mMax = Math.max(mMax, millis);
+    }
+
+
+    /**
+     * Count a request which was superseded before its result was delivered
+     */
+    public synchronized void recordDropped()
+    {
+        mDropped++;
+    }
+
+
+    /**
+     * @param percent percentile in 0..100
+     * @return upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public synchronized long getPercentile(double percent)
+    {
+        if (mTotal == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(mTotal * percent / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return i == BUCKETS - 1 ? mMax : Math.min(mMax, (1L << i) - 1);
+        }
+
+        return mMax;
+    }
+
+
+    public synchronized void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+
+        mTotal = mSum = mMax = mDropped = 0;
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder(mName);
+        sb.append(String.format(Locale.US, ": n=%d dropped=%d avg=%.1f p50<=%d p90<=%d p99<=%d max=%d ms",
+                mTotal, mDropped, mTotal == 0 ? 0 : (double) mSum / mTotal, getPercentile(50),
+                getPercentile(90), getPercentile(99), mMax));
+
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mCounts[i] == 0)
+                continue;
+
+            sb.append(" [<").append(1L << i).append("ms:").append(mCounts[i]).append(']');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.util.Log;
+
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.FileUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Reads the map and layer config files in parallel ahead of the map load, so the sequential load
+ * finds them in the page cache. Top most layers are read first.
+ */
+public class LayerConfigPrefetcher
+{
+    protected static final int MAX_THREADS = 4;
+
+    protected final File            mMapFile;
+    protected final ExecutorService mExecutor;
+
+
+    public LayerConfigPrefetcher(File mapFile)
+    {
+        mMapFile = mapFile;
+        int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() + 1);
+        mExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+
+    public LayerConfigPrefetcher start()
+    {
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long start = System.currentTimeMillis();
+                prefetchGroup(mMapFile, mMapFile.getParentFile());
+                if (Constants.DEBUG_MODE)
+                    Log.d(Constants.TAG, "Map layers listed in " +
+                            (System.currentTimeMillis() - start) + " ms");
+            }
+        });
+
+        return this;
+    }
+
+
+    /**
+     * Drop the rest once the map load no longer needs it
+     */
+    public void finish()
+    {
+        mExecutor.shutdownNow();
+    }
+
+
+    protected void prefetchGroup(
+            File config,
+            File root)
+    {
+        JSONArray layers;
+        try {
+            JSONObject json = new JSONObject(FileUtil.readFromFile(config));
+            layers = json.optJSONArray(Constants.JSON_LAYERS_KEY);
+        } catch (IOException | JSONException e) {
+            return; // the map load will report it
+        }
+
+        if (null == layers)
+            return;
+
+        for (int i = layers.length() - 1; i >= 0; i--) {
+            JSONObject layer = layers.optJSONObject(i);
+            if (null == layer || !layer.has(Constants.JSON_PATH_KEY))
+                continue;
+
+            File layerPath = new File(layer.optString(Constants.JSON_PATH_KEY));
+            final File path = layerPath.isAbsolute() ? layerPath : new File(root, layerPath.getPath());
+            try {
+                mExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        prefetchLayer(path);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return; // the map is already loaded
+            }
+        }
+    }
+
+
+    protected void prefetchLayer(File path)
+    {
+        // groups keep their children under their own folder
+        File config = new File(path, Constants.CONFIG);
+        if (config.exists() && !Thread.currentThread().isInterrupted())
+            prefetchGroup(config, path);
+    }
+}
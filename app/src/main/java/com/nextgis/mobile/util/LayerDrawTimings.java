@@ -0,0 +1,145 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.nextgis.maplib.util.Constants;
+
+
+/**
+ * Per-layer map draw times. A layer time is measured from the draw start to its last progress
+ * callback, its own time is the part after the previous layer finished. When the sum of own
+ * times is close to the whole draw time the layers are drawn one after another. The draw progress
+ * is kept too, from the layer progress callbacks.
+ */
+public class LayerDrawTimings
+{
+    protected final SparseArray<LatencyHistogram> mLayers;
+    protected final SparseBooleanArray            mFinished;
+    protected final SparseArray<Float>            mProgress;
+    protected final LatencyHistogram              mDraws;
+    protected long mStart, mLastFinish, mOwnSum, mOwnMax;
+
+
+    public LayerDrawTimings()
+    {
+        mLayers = new SparseArray<>();
+        mFinished = new SparseBooleanArray();
+        mProgress = new SparseArray<>();
+        mDraws = new LatencyHistogram("Map draw");
+    }
+
+
+    public synchronized void onDrawStarted()
+    {
+        mStart = mLastFinish = SystemClock.elapsedRealtime();
+        mOwnSum = mOwnMax = 0;
+        mFinished.clear();
+        mProgress.clear();
+    }
+
+
+    public synchronized void onLayerProgress(
+            int id,
+            float percent)
+    {
+        Float last = mProgress.get(id);
+        if (null == last || last < percent)
+            mProgress.put(id, Math.min(percent, 1f));
+    }
+
+
+    /**
+     * @return the draw progress in 0..100
+     */
+    public synchronized int getProgress(int layerCount)
+    {
+        if (layerCount <= 0)
+            return 0;
+
+        float sum = 0;
+        for (int i = 0; i < mProgress.size(); i++) {
+            sum += mProgress.valueAt(i);
+        }
+
+        return Math.min(100, (int) (sum * 100 / layerCount));
+    }
+
+
+    public synchronized void onLayerFinished(
+            int id,
+            String name)
+    {
+        if (mStart == 0 || mFinished.indexOfKey(id) >= 0)
+            return;
+
+        long now = SystemClock.elapsedRealtime();
+        long own = now - mLastFinish;
+        mFinished.put(id, true);
+        mLastFinish = now;
+        mOwnSum += own;
+        mOwnMax = Math.max(mOwnMax, own);
+
+        LatencyHistogram histogram = mLayers.get(id);
+        if (null == histogram) {
+            histogram = new LatencyHistogram("Layer " + name);
+            mLayers.put(id, histogram);
+        }
+        histogram.record(own);
+    }
+
+
+    /**
+     * The whole map is drawn
+     */
+    public synchronized void onDrawFinished()
+    {
+        if (mStart == 0)
+            return;
+
+        long total = SystemClock.elapsedRealtime() - mStart;
+        mDraws.record(total);
+        mStart = 0;
+
+        if (Constants.DEBUG_MODE)
+            Log.d(Constants.TAG, "Map draw: " + total + " ms, " + mFinished.size() + " layers, sum " +
+                    mOwnSum + " ms, slowest " + mOwnMax + " ms");
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder(mDraws.toString());
+        for (int i = 0; i < mLayers.size(); i++) {
+            sb.append('\n').append(mLayers.valueAt(i));
+        }
+
+        return sb.toString();
+    }
+}
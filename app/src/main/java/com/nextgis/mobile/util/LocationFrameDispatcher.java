@@ -0,0 +1,148 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.location.Location;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+import com.nextgis.maplib.api.GpsEventListener;
+import com.nextgis.maplib.location.GpsEventSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Relays location fixes to UI listeners at most once per display frame. Fixes arriving within a
+ * frame are coalesced, the listeners get the latest one. Consumers which need every fix in order,
+ * like tracking, keep listening to the GpsEventSource directly.
+ */
+public class LocationFrameDispatcher
+        implements GpsEventListener, Runnable
+{
+    protected final GpsEventSource         mSource;
+    protected final View                   mView;
+    protected final List<GpsEventListener> mListeners;
+    protected Location                     mLocation, mBestLocation;
+    protected boolean                      mScheduled;
+    protected int                          mCoalesced;
+
+
+    public LocationFrameDispatcher(
+            GpsEventSource source,
+            View view)
+    {
+        mSource = source;
+        mView = view;
+        mListeners = new ArrayList<>();
+    }
+
+
+    public void addListener(GpsEventListener listener)
+    {
+        if (mListeners.contains(listener))
+            return;
+
+        mListeners.add(listener);
+        if (mListeners.size() == 1)
+            mSource.addListener(this);
+    }
+
+
+    public void removeListener(GpsEventListener listener)
+    {
+        if (!mListeners.remove(listener) || !mListeners.isEmpty())
+            return;
+
+        mSource.removeListener(this);
+        mView.removeCallbacks(this);
+        mScheduled = false;
+        mLocation = mBestLocation = null;
+    }
+
+
+    /**
+     * @return fixes dropped because a newer one came in the same frame
+     */
+    public int getCoalescedCount()
+    {
+        return mCoalesced;
+    }
+
+
+    @Override
+    public void onLocationChanged(Location location)
+    {
+        if (null != mLocation)
+            mCoalesced++;
+
+        mLocation = location;
+        schedule();
+    }
+
+
+    @Override
+    public void onBestLocationChanged(Location location)
+    {
+        mBestLocation = location;
+        schedule();
+    }
+
+
+    @Override
+    public void onGpsStatusChanged(int event)
+    {
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onGpsStatusChanged(event);
+        }
+    }
+
+
+    protected void schedule()
+    {
+        if (!mScheduled) {
+            mScheduled = true;
+            ViewCompat.postOnAnimation(mView, this);
+        }
+    }
+
+
+    @Override
+    public void run()
+    {
+        mScheduled = false;
+        Location location = mLocation, best = mBestLocation;
+        mLocation = mBestLocation = null;
+
+        // a copy, listeners could unsubscribe while called
+        GpsEventListener[] listeners = mListeners.toArray(new GpsEventListener[mListeners.size()]);
+        for (GpsEventListener listener : listeners) {
+            if (null != best)
+                listener.onBestLocationChanged(best);
+            if (null != location)
+                listener.onLocationChanged(location);
+        }
+    }
+}
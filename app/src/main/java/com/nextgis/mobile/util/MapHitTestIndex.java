@@ -0,0 +1,440 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.api.ILayerView;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
+import static com.nextgis.maplib.util.Constants.FIELD_ID;
+
+
+/**
+ * Map-wide hit test index. Keeps an envelope R-tree per vector layer, builds it in background on
+ * first use and keeps it up to date from the layer content provider change notifications.
+ */
+public class MapHitTestIndex
+{
+    protected final Context             mContext;
+    protected final String              mAuthority;
+    protected final Map<String, Entry>  mEntries;
+    protected final ExecutorService     mBuilder;
+
+
+    public MapHitTestIndex(
+            Context context,
+            String authority)
+    {
+        mContext = context.getApplicationContext();
+        mAuthority = authority;
+        mEntries = new HashMap<>();
+        mBuilder = Executors.newSingleThreadExecutor();
+    }
+
+
+    /**
+     * Features under the envelope for all valid visible layers.
+     *
+     * @param layers layers in draw order (bottom first)
+     * @param env    tolerance box in map coordinates
+     * @return hits ordered by distance to the box center, the top most layer wins on ties
+     */
+    public List<Hit> query(
+            List<ILayer> layers,
+            GeoEnvelope env)
+    {
+        List<Hit> hits = new ArrayList<>();
+        for (int i = 0; i < layers.size(); i++) {
+            ILayer layer = layers.get(i);
+            if (!layer.isValid() || !(layer instanceof VectorLayer))
+                continue;
+            if (!((ILayerView) layer).isVisible())
+                continue;
+
+            query((VectorLayer) layer, i, env, hits);
+        }
+
+        Collections.sort(hits, HIT_COMPARATOR);
+        return hits;
+    }
+
+
+    public List<Hit> query(
+            VectorLayer layer,
+            GeoEnvelope env)
+    {
+        List<Hit> hits = new ArrayList<>();
+        query(layer, 0, env, hits);
+        Collections.sort(hits, HIT_COMPARATOR);
+        return hits;
+    }
+
+
+    protected void query(
+            final VectorLayer layer,
+            final int order,
+            GeoEnvelope env,
+            final List<Hit> hits)
+    {
+        final double x = (env.getMinX() + env.getMaxX()) / 2;
+        final double y = (env.getMinY() + env.getMaxY()) / 2;
+
+        Entry entry = getEntry(layer);
+        EnvelopeRTree tree = entry.getTree();
+        if (null == tree) {
+            // not indexed yet, ask the layer directly
+            for (Long id : layer.query(env)) {
+                hits.add(new Hit(layer, id, order, Double.MAX_VALUE, Double.MAX_VALUE));
+            }
+            return;
+        }
+
+        tree.query(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(),
+                new EnvelopeRTree.Visitor()
+                {
+                    @Override
+                    public void onHit(
+                            long id,
+                            double minX,
+                            double minY,
+                            double maxX,
+                            double maxY)
+                    {
+                        double dx = Math.max(0, Math.max(minX - x, x - maxX));
+                        double dy = Math.max(0, Math.max(minY - y, y - maxY));
+                        double area = (maxX - minX) * (maxY - minY);
+                        hits.add(new Hit(layer, id, order, dx * dx + dy * dy, area));
+                    }
+                });
+    }
+
+
+    /**
+     * Start index builds for the layers so the first tap does not need to wait
+     */
+    public void prepare(List<ILayer> layers)
+    {
+        retain(layers);
+        for (ILayer layer : layers) {
+            if (layer.isValid() && layer instanceof VectorLayer)
+                getEntry((VectorLayer) layer).getTree();
+        }
+    }
+
+
+    /**
+     * Release the indexes of layers which are not in the list, i.e. deleted or left in a reloaded
+     * map
+     */
+    public void retain(List<ILayer> layers)
+    {
+        synchronized (mEntries) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (!contains(layers, entry.mLayer)) {
+                    entry.release();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+
+    protected static boolean contains(
+            List<ILayer> layers,
+            ILayer layer)
+    {
+        for (ILayer item : layers) {
+            if (item == layer)
+                return true;
+        }
+
+        return false;
+    }
+
+
+    protected Entry getEntry(VectorLayer layer)
+    {
+        String key = layer.getPath().getName();
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (null == entry || entry.mLayer != layer) {
+                if (null != entry)
+                    entry.release();
+
+                entry = new Entry(layer);
+                mEntries.put(key, entry);
+            }
+
+            return entry;
+        }
+    }
+
+
+    public static class Hit
+    {
+        protected final VectorLayer mLayer;
+        protected final long        mFeatureId;
+        protected final int         mOrder;
+        protected final double      mDistance;
+        protected final double      mArea;
+
+
+        public Hit(
+                VectorLayer layer,
+                long featureId,
+                int order,
+                double distance,
+                double area)
+        {
+            mLayer = layer;
+            mFeatureId = featureId;
+            mOrder = order;
+            mDistance = distance;
+            mArea = area;
+        }
+
+
+        public VectorLayer getLayer()
+        {
+            return mLayer;
+        }
+
+
+        public long getFeatureId()
+        {
+            return mFeatureId;
+        }
+    }
+
+
+    protected static final Comparator<Hit> HIT_COMPARATOR = new Comparator<Hit>()
+    {
+        @Override
+        public int compare(
+                Hit lhs,
+                Hit rhs)
+        {
+            int result = Double.compare(lhs.mDistance, rhs.mDistance);
+            if (result == 0)
+                result = Double.compare(lhs.mArea, rhs.mArea);
+            if (result == 0)
+                result = rhs.mOrder - lhs.mOrder;
+            return result;
+        }
+    };
+
+
+    protected class Entry
+            extends ContentObserver
+    {
+        protected final VectorLayer   mLayer;
+        protected final Uri           mUri;
+        protected volatile EnvelopeRTree mTree;
+        protected boolean             mDirty;
+        protected boolean             mBuilding;
+
+
+        public Entry(VectorLayer layer)
+        {
+            super(null);
+            mLayer = layer;
+            mUri = Uri.parse("content://" + mAuthority + "/" + layer.getPath().getName());
+            mDirty = true;
+            mContext.getContentResolver().registerContentObserver(mUri, true, this);
+        }
+
+
+        public void release()
+        {
+            mContext.getContentResolver().unregisterContentObserver(this);
+        }
+
+
+        /**
+         * @return the index or null if it is not ready, in this case the build is scheduled
+         */
+        public synchronized EnvelopeRTree getTree()
+        {
+            if (mDirty && !mBuilding) {
+                mBuilding = true;
+                mBuilder.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        build();
+                    }
+                });
+            }
+
+            return mDirty ? null : mTree;
+        }
+
+
+        protected void build()
+        {
+            synchronized (this) {
+                mDirty = false;
+            }
+
+            long start = System.currentTimeMillis();
+            long[] ids = new long[1024];
+            double[] boxes = new double[1024 * 4];
+            int count = 0;
+
+            Cursor cursor = mLayer.query(new String[] {FIELD_ID, FIELD_GEOM}, null, null, null, null);
+            if (null != cursor) {
+                if (cursor.moveToFirst()) {
+                    do {
+                        GeoEnvelope env = readEnvelope(cursor.getBlob(1));
+                        if (null == env)
+                            continue;
+
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                            boxes = Arrays.copyOf(boxes, count * 2 * 4);
+                        }
+
+                        ids[count] = cursor.getLong(0);
+                        boxes[count * 4] = env.getMinX();
+                        boxes[count * 4 + 1] = env.getMinY();
+                        boxes[count * 4 + 2] = env.getMaxX();
+                        boxes[count * 4 + 3] = env.getMaxY();
+                        count++;
+                    } while (cursor.moveToNext());
+                }
+
+                cursor.close();
+            }
+
+            EnvelopeRTree tree = new EnvelopeRTree(ids, boxes, count);
+            synchronized (this) {
+                mTree = tree;
+                mBuilding = false;
+            }
+
+            if (Constants.DEBUG_MODE)
+                Log.d(Constants.TAG, "Hit test index for " + mLayer.getName() + ": " + count +
+                        " features in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+
+        protected void update(long featureId)
+        {
+            EnvelopeRTree tree = mTree;
+            if (null == tree)
+                return;
+
+            GeoEnvelope env = null;
+            Cursor cursor = mLayer.query(new String[] {FIELD_GEOM}, FIELD_ID + " = ?",
+                    new String[] {featureId + ""}, null, null);
+            if (null != cursor) {
+                if (cursor.moveToFirst())
+                    env = readEnvelope(cursor.getBlob(0));
+                cursor.close();
+            }
+
+            if (null == env)
+                tree.remove(featureId);
+            else
+                tree.insert(featureId, env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY());
+        }
+
+
+        @Override
+        public void onChange(boolean selfChange)
+        {
+            onChange(selfChange, null);
+        }
+
+
+        @Override
+        public void onChange(
+                boolean selfChange,
+                Uri uri)
+        {
+            final long featureId = getFeatureId(uri);
+            if (featureId == Constants.NOT_FOUND) {
+                synchronized (this) {
+                    mDirty = true;
+                }
+                return;
+            }
+
+            // single row change, patch the index in place
+            mBuilder.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    update(featureId);
+                }
+            });
+        }
+
+
+        protected long getFeatureId(Uri uri)
+        {
+            if (null == uri || uri.getPathSegments().size() != 2)
+                return Constants.NOT_FOUND;
+
+            try {
+                return Long.parseLong(uri.getLastPathSegment());
+            } catch (NumberFormatException e) {
+                return Constants.NOT_FOUND;
+            }
+        }
+    }
+
+
+    protected static GeoEnvelope readEnvelope(byte[] blob)
+    {
+        if (null == blob)
+            return null;
+
+        return GeometryCodec.readEnvelope(blob);
+    }
+}
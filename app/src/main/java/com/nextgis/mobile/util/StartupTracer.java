@@ -0,0 +1,200 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.nextgis.maplib.util.Constants;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+
+/**
+ * Records named spans of the application launch into a ring buffer. A launch starts in
+ * {@link #beginLaunch(boolean)} and ends in {@link #endLaunch(Context)}, which logs a short report
+ * and, in debug mode, writes the spans as Chrome trace events (chrome://tracing, Perfetto) to
+ * the app external files folder.
+ */
+public class StartupTracer
+{
+    public static final  long   NO_SPAN    = -1;
+    protected static final int  CAPACITY   = 128;
+    protected static final String TRACE_FILE = "startup_trace.json";
+
+    protected static final String[] mNames   = new String[CAPACITY];
+    protected static final long[]   mStarts  = new long[CAPACITY];
+    protected static final long[]   mEnds    = new long[CAPACITY];
+    protected static final int[]    mThreads = new int[CAPACITY];
+    protected static final long[]   mSpans   = new long[CAPACITY];
+
+    protected static long    mNextSpan;
+    protected static long    mFirstSpan;
+    protected static long    mLaunchStart;
+    protected static boolean mLaunching;
+    protected static boolean mColdLaunch;
+
+
+    /**
+     * @param cold true for the process start, false for an activity start in a live process
+     */
+    public static synchronized void beginLaunch(boolean cold)
+    {
+        if (mLaunching)
+            return; // the activity of a cold launch
+
+        mLaunching = true;
+        mColdLaunch = cold;
+        mLaunchStart = System.nanoTime();
+        mFirstSpan = mNextSpan;
+    }
+
+
+    /**
+     * @return span handle for {@link #end(long)}, NO_SPAN outside of a launch
+     */
+    public static synchronized long begin(String name)
+    {
+        if (!mLaunching)
+            return NO_SPAN;
+
+        long span = mNextSpan++;
+        int slot = (int) (span % CAPACITY);
+        mSpans[slot] = span;
+        mNames[slot] = name;
+        mThreads[slot] = Process.myTid();
+        mStarts[slot] = System.nanoTime();
+        mEnds[slot] = 0;
+        return span;
+    }
+
+
+    public static synchronized void end(long span)
+    {
+        if (span == NO_SPAN)
+            return;
+
+        int slot = (int) (span % CAPACITY);
+        if (mSpans[slot] == span)
+            mEnds[slot] = System.nanoTime();
+    }
+
+
+    public static void endLaunch(final Context context)
+    {
+        final String report;
+        final String trace;
+        synchronized (StartupTracer.class) {
+            if (!mLaunching)
+                return;
+
+            mLaunching = false;
+            report = getReport();
+            trace = Constants.DEBUG_MODE ? getTrace() : null;
+        }
+
+        Log.i(Constants.TAG, report);
+        if (null == trace)
+            return;
+
+        final File dir = context.getExternalFilesDir(null);
+        if (null == dir)
+            return;
+
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FileWriter writer = null;
+                try {
+                    writer = new FileWriter(new File(dir, TRACE_FILE));
+                    writer.write(trace);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (null != writer)
+                        try {
+                            writer.close();
+                        } catch (IOException ignored) { }
+                }
+            }
+        }).start();
+    }
+
+
+    protected static long getOldestSpan()
+    {
+        return Math.max(mFirstSpan, mNextSpan - CAPACITY);
+    }
+
+
+    protected static String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mColdLaunch ? "Cold" : "Warm").append(" start ")
+                .append((System.nanoTime() - mLaunchStart) / 1000000).append(" ms:");
+
+        for (long span = getOldestSpan(); span < mNextSpan; span++) {
+            int slot = (int) (span % CAPACITY);
+            sb.append("\n  ").append(mNames[slot]).append(' ');
+            if (mEnds[slot] == 0)
+                sb.append("unfinished");
+            else
+                sb.append((mEnds[slot] - mStarts[slot]) / 1000000).append(" ms");
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Complete ("X") events, timestamps in microseconds from the launch start
+     */
+    protected static String getTrace()
+    {
+        int pid = Process.myPid();
+        StringBuilder sb = new StringBuilder("{\"traceEvents\":[");
+        String separator = "";
+
+        for (long span = getOldestSpan(); span < mNextSpan; span++) {
+            int slot = (int) (span % CAPACITY);
+            if (mEnds[slot] == 0)
+                continue;
+
+            sb.append(separator).append(String.format(Locale.US,
+                    "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%.1f,\"dur\":%.1f,\"pid\":%d,\"tid\":%d}",
+                    mNames[slot].replace("\"", "\\\""), mColdLaunch ? "cold" : "warm",
+                    (mStarts[slot] - mLaunchStart) / 1000.0, (mEnds[slot] - mStarts[slot]) / 1000.0,
+                    pid, mThreads[slot]));
+            separator = ",";
+        }
+
+        return sb.append("],\"displayTimeUnit\":\"ms\"}").toString();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.app.Activity;
+import android.graphics.drawable.Drawable;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.SparseBooleanArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.nextgis.maplib.util.LocationUtil;
+import com.nextgis.mobile.R;
+
+
+/**
+ * Fills the map status panel with the location values. The one line and the two line layouts are
+ * inflated once, their drawables are loaded once, and whether the values fit one line is measured once
+ * per text length. Values are formatted into reusable buffers and a view is updated only when its
+ * text changed.
+ */
+public class StatusPanelRenderer
+{
+    protected static final int FIELD_SOURCE    = 0;
+    protected static final int FIELD_ACCURACY  = 1;
+    protected static final int FIELD_ALTITUDE  = 2;
+    protected static final int FIELD_SPEED     = 3;
+    protected static final int FIELD_LATITUDE  = 4;
+    protected static final int FIELD_LONGITUDE = 5;
+    protected static final int FIELD_COUNT     = 6;
+
+    protected static final int[] FIELD_IDS = {
+            R.id.tv_source, R.id.tv_accuracy, R.id.tv_altitude, R.id.tv_speed, R.id.tv_latitude,
+            R.id.tv_longitude};
+
+    protected static final int SOURCE_NONE = 0;
+    protected static final int SOURCE_GPS  = 1;
+    protected static final int SOURCE_WIFI = 2;
+
+    protected final Activity           mActivity;
+    protected final ViewGroup          mContainer;
+    protected final FormatService      mFormats;
+    protected final StringBuilder[]    mValues;
+    protected final SparseBooleanArray mFitsOneLine;
+    protected final String             mMeter, mSpeedUnit, mLatitude, mLongitude, mNotAvailable;
+    protected Panel                    mOneLine, mTwoLines;
+    protected int                      mSource;
+
+
+    public StatusPanelRenderer(
+            Activity activity,
+            ViewGroup container)
+    {
+        mActivity = activity;
+        mContainer = container;
+        mFormats = FormatService.getInstance(activity);
+        mFitsOneLine = new SparseBooleanArray();
+
+        mValues = new StringBuilder[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            mValues[i] = new StringBuilder();
+        }
+
+        mMeter = activity.getString(R.string.unit_meter);
+        mSpeedUnit = activity.getString(R.string.unit_kilometer) + "/" + activity.getString(R.string.unit_hour);
+        mLatitude = activity.getString(R.string.latitude_caption_short);
+        mLongitude = activity.getString(R.string.longitude_caption_short);
+        mNotAvailable = activity.getString(R.string.n_a);
+    }
+
+
+    /**
+     * @param location the location to show or null for the default values
+     */
+    public void render(Location location)
+    {
+        format(location);
+
+        int length = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            length += mValues[i].length();
+        }
+
+        // the length class stands for the text width, source drawable included
+        int key = length << 2 | mSource;
+        int index = mFitsOneLine.indexOfKey(key);
+        boolean fits;
+        if (index >= 0) {
+            fits = mFitsOneLine.valueAt(index);
+        } else {
+            fits = getOneLine().measureFits(mActivity.getResources().getDisplayMetrics().widthPixels);
+            mFitsOneLine.put(key, fits);
+        }
+
+        Panel panel = fits ? getOneLine() : getTwoLines();
+        panel.apply();
+
+        if (mContainer.getChildCount() != 1 || mContainer.getChildAt(0) != panel.mRoot) {
+            mContainer.removeAllViews();
+            mContainer.addView(panel.mRoot);
+        }
+    }
+
+
+    /**
+     * Detach the panel, it is inflated again on the next render
+     */
+    public void reset()
+    {
+        mContainer.removeAllViews();
+        mOneLine = null;
+        mTwoLines = null;
+    }
+
+
+    protected void format(Location location)
+    {
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            mValues[i].setLength(0);
+        }
+
+        if (null == location) {
+            mSource = SOURCE_NONE;
+            for (int i = FIELD_ACCURACY; i < FIELD_COUNT; i++) {
+                mValues[i].append(mNotAvailable);
+            }
+            return;
+        }
+
+        if (LocationManager.GPS_PROVIDER.equals(location.getProvider())) {
+            mSource = SOURCE_GPS;
+            int satellites = location.getExtras() != null ? location.getExtras().getInt("satellites") : 0;
+            if (satellites > 0)
+                mValues[FIELD_SOURCE].append(satellites);
+        } else {
+            mSource = SOURCE_WIFI;
+        }
+
+        appendMeasure(mValues[FIELD_ACCURACY], location.getAccuracy(), mMeter);
+        appendMeasure(mValues[FIELD_ALTITUDE], location.getAltitude(), mMeter);
+        appendMeasure(mValues[FIELD_SPEED], location.getSpeed() * 3600 / 1000, mSpeedUnit);
+        appendCoordinate(mValues[FIELD_LATITUDE], location.getLatitude(), mLatitude);
+        appendCoordinate(mValues[FIELD_LONGITUDE], location.getLongitude(), mLongitude);
+    }
+
+
+    protected void appendMeasure(
+            StringBuilder sb,
+            double value,
+            String unit)
+    {
+        mFormats.appendFixed(sb, value, 1).append(' ').append(unit);
+    }
+
+
+    protected void appendCoordinate(
+            StringBuilder sb,
+            double value,
+            String appendix)
+    {
+        int format = mFormats.getCoordinatesFormat(Location.FORMAT_DEGREES);
+        int fraction = mFormats.getCoordinatesFraction();
+        sb.append(LocationUtil.formatCoordinate(value, format, fraction)).append(' ').append(appendix);
+    }
+
+
+    protected Panel getOneLine()
+    {
+        if (null == mOneLine)
+            mOneLine = new Panel(R.layout.status_panel_land);
+
+        return mOneLine;
+    }
+
+
+    protected Panel getTwoLines()
+    {
+        if (null == mTwoLines)
+            mTwoLines = new Panel(R.layout.status_panel);
+
+        return mTwoLines;
+    }
+
+
+    protected class Panel
+    {
+        protected final View       mRoot;
+        protected final TextView[] mViews;
+        // two buffers per view, the one shown is never written to
+        protected final char[][]   mBuffers;
+        protected final int[]      mLengths;
+        protected final boolean[]  mFirst;
+        protected Drawable         mGpsDrawable, mWifiDrawable;
+        protected int              mShownSource = -1;
+
+
+        public Panel(int layout)
+        {
+            mRoot = mActivity.getLayoutInflater().inflate(layout, mContainer, false);
+            mRoot.getBackground().setAlpha(128);
+
+            mViews = new TextView[FIELD_COUNT];
+            mBuffers = new char[FIELD_COUNT * 2][];
+            mLengths = new int[FIELD_COUNT];
+            mFirst = new boolean[FIELD_COUNT];
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                mViews[i] = (TextView) mRoot.findViewById(FIELD_IDS[i]);
+                mBuffers[i * 2] = new char[32];
+                mBuffers[i * 2 + 1] = new char[32];
+                mLengths[i] = -1;
+            }
+        }
+
+
+        public void apply()
+        {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                StringBuilder value = mValues[i];
+                int length = value.length();
+                char[] shown = mBuffers[i * 2 + (mFirst[i] ? 0 : 1)];
+                if (length == mLengths[i] && equals(value, shown, length))
+                    continue;
+
+                int next = i * 2 + (mFirst[i] ? 1 : 0);
+                if (mBuffers[next].length < length)
+                    mBuffers[next] = new char[length * 2];
+
+                value.getChars(0, length, mBuffers[next], 0);
+                mViews[i].setText(mBuffers[next], 0, length);
+                mLengths[i] = length;
+                mFirst[i] = !mFirst[i];
+            }
+
+            if (mShownSource != mSource) {
+                mShownSource = mSource;
+                mViews[FIELD_SOURCE].setCompoundDrawablesWithIntrinsicBounds(
+                        getSourceDrawable(mSource), null, null, null);
+            }
+        }
+
+
+        protected Drawable getSourceDrawable(int source)
+        {
+            switch (source) {
+                case SOURCE_GPS:
+                    if (null == mGpsDrawable)
+                        mGpsDrawable = mActivity.getResources().getDrawable(R.drawable.ic_location);
+                    return mGpsDrawable;
+                case SOURCE_WIFI:
+                    if (null == mWifiDrawable)
+                        mWifiDrawable = mActivity.getResources().getDrawable(R.drawable.ic_signal_wifi);
+                    return mWifiDrawable;
+                default:
+                    return null;
+            }
+        }
+
+
+        public boolean measureFits(int width)
+        {
+            apply();
+
+            int totalWidth = 0;
+            for (TextView view : mViews) {
+                view.measure(0, 0);
+                totalWidth += view.getMeasuredWidth();
+            }
+
+            return totalWidth < width;
+        }
+
+
+        protected boolean equals(
+                StringBuilder value,
+                char[] chars,
+                int length)
+        {
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) != chars[i])
+                    return false;
+            }
+
+            return true;
+        }
+    }
+}
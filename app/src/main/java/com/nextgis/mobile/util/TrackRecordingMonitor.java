@@ -0,0 +1,184 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nextgis.maplib.api.GpsEventListener;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.mobile.MainApplication;
+
+import java.util.Locale;
+
+
+/**
+ * Measures a track recording: GPS fixes per second, tracks layer writes per fix and battery drain
+ * per hour. Writes are counted from the tracks layer change notifications, so with one insert per
+ * fix the ratio is close to one. The fixes are also simplified into levels of detail as they
+ * arrive, to see how many vertices each zoom really needs.
+ */
+public class TrackRecordingMonitor
+        extends ContentObserver
+        implements GpsEventListener
+{
+    protected final MainApplication mApp;
+    protected final Uri             mUri;
+    protected final TrackSimplifier mSimplifier;
+    protected boolean               mRunning;
+    protected long                  mStart, mFixes, mWrites;
+    protected float                 mBatteryStart;
+
+
+    public TrackRecordingMonitor(MainApplication app)
+    {
+        super(null);
+        mApp = app;
+        mUri = Uri.parse("content://" + app.getAuthority() + "/" + MainApplication.LAYER_TRACKS);
+        mSimplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_ZOOMS);
+    }
+
+
+    public synchronized void start()
+    {
+        if (mRunning)
+            return;
+
+        mRunning = true;
+        mStart = SystemClock.elapsedRealtime();
+        mFixes = mWrites = 0;
+        mSimplifier.reset();
+        mBatteryStart = getBatteryLevel();
+
+        mApp.getContentResolver().registerContentObserver(mUri, true, this);
+        mApp.getGpsEventSource().addListener(this);
+    }
+
+
+    /**
+     * @return the recording summary or null if the monitor was not started
+     */
+    public synchronized String stop()
+    {
+        if (!mRunning)
+            return null;
+
+        mRunning = false;
+        mApp.getContentResolver().unregisterContentObserver(this);
+        mApp.getGpsEventSource().removeListener(this);
+
+        String summary = getSummary();
+        Log.i(Constants.TAG, summary);
+        return summary;
+    }
+
+
+    public TrackSimplifier getSimplifier()
+    {
+        return mSimplifier;
+    }
+
+
+    public synchronized boolean isRunning()
+    {
+        return mRunning;
+    }
+
+
+    public synchronized String getSummary()
+    {
+        double seconds = Math.max(1, SystemClock.elapsedRealtime() - mStart) / 1000d;
+        float battery = getBatteryLevel();
+        double drain = mBatteryStart < 0 || battery < 0 ? 0 : (mBatteryStart - battery) * 3600 / seconds;
+
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "Track recording: %.0f s, %d fixes (%.2f/s), %d writes (%.2f per fix), battery %.1f%%/h",
+                seconds, mFixes, mFixes / seconds, mWrites, mFixes == 0 ? 0 : (double) mWrites / mFixes,
+                drain));
+
+        sb.append(", lossless vertices by zoom:");
+        for (int i = 0; i < mSimplifier.getLevelCount(); i++) {
+            sb.append(" z").append(mSimplifier.getZoom(i)).append('=').append(mSimplifier.getVertexCount(i));
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @return battery level in percent or -1 if unknown
+     */
+    protected float getBatteryLevel()
+    {
+        Intent battery = mApp.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (null == battery)
+            return -1;
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 ? -1 : level * 100f / scale;
+    }
+
+
+    @Override
+    public void onChange(boolean selfChange)
+    {
+        synchronized (this) {
+            mWrites++;
+        }
+    }
+
+
+    @Override
+    public void onLocationChanged(Location location)
+    {
+        if (null != location && LocationManager.GPS_PROVIDER.equals(location.getProvider())) {
+            synchronized (this) {
+                mFixes++;
+                mSimplifier.add(location.getLongitude(), location.getLatitude());
+            }
+        }
+    }
+
+
+    @Override
+    public void onBestLocationChanged(Location location)
+    {
+
+    }
+
+
+    @Override
+    public void onGpsStatusChanged(int event)
+    {
+
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import java.util.Arrays;
+
+
+/**
+ * Streaming track simplification into several levels of detail. Each level is made for a map
+ * zoom and keeps the deviation from the recorded track under half a screen pixel at that zoom, so
+ * it is visually lossless at the zoom and below. Points are simplified as they arrive with an
+ * opening window: the last kept vertex is the anchor, a point is dropped while all points since
+ * the anchor stay within the tolerance of the segment from the anchor to the newest point.
+ */
+public class TrackSimplifier
+{
+    public static final int[] DEFAULT_ZOOMS = {18, 15, 12, 9, 6};
+
+    protected static final double EARTH_RADIUS = 6378137;
+    protected static final double TILE_SIZE    = 256;
+    // bounds the work per point on long straight runs
+    protected static final int    MAX_WINDOW   = 128;
+
+    protected final Level[] mLevels;
+    protected int           mPointCount;
+
+
+    public TrackSimplifier(int... zooms)
+    {
+        mLevels = new Level[zooms.length];
+        for (int i = 0; i < zooms.length; i++) {
+            double pixel = 2 * Math.PI * EARTH_RADIUS / (TILE_SIZE * Math.pow(2, zooms[i]));
+            mLevels[i] = new Level(zooms[i], pixel / 2);
+        }
+    }
+
+
+    /**
+     * @param lon longitude in degrees
+     * @param lat latitude in degrees
+     */
+    public void add(
+            double lon,
+            double lat)
+    {
+        double x = EARTH_RADIUS * Math.toRadians(lon);
+        double y = EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat) / 2));
+        for (Level level : mLevels) {
+            level.add(x, y);
+        }
+
+        mPointCount++;
+    }
+
+
+    public void reset()
+    {
+        for (Level level : mLevels) {
+            level.reset();
+        }
+
+        mPointCount = 0;
+    }
+
+
+    public int getPointCount()
+    {
+        return mPointCount;
+    }
+
+
+    public int getLevelCount()
+    {
+        return mLevels.length;
+    }
+
+
+    public int getZoom(int level)
+    {
+        return mLevels[level].mZoom;
+    }
+
+
+    /**
+     * @return vertices of the level, the newest point included
+     */
+    public int getVertexCount(int level)
+    {
+        return mLevels[level].getCount();
+    }
+
+
+    /**
+     * @return Web Mercator coordinates of the level vertices as x, y pairs
+     */
+    public double[] getVertices(int level)
+    {
+        return mLevels[level].getVertices();
+    }
+
+
+    /**
+     * @return the coarsest level which is visually lossless at the zoom
+     */
+    public int getLevel(float zoom)
+    {
+        int best = -1;
+        for (int i = 0; i < mLevels.length; i++) {
+            if (mLevels[i].mZoom >= zoom && (best < 0 || mLevels[i].mZoom < mLevels[best].mZoom))
+                best = i;
+        }
+
+        if (best >= 0)
+            return best;
+
+        // deeper than all levels, take the finest
+        for (int i = 0; i < mLevels.length; i++) {
+            if (best < 0 || mLevels[i].mZoom > mLevels[best].mZoom)
+                best = i;
+        }
+
+        return best;
+    }
+
+
+    protected static class Level
+    {
+        protected final int    mZoom;
+        protected final double mTolerance2;
+        protected double[]     mKept;
+        protected int          mKeptCount;
+        // points since the anchor, the newest last
+        protected double[]     mWindow;
+        protected int          mWindowCount;
+
+
+        public Level(
+                int zoom,
+                double tolerance)
+        {
+            mZoom = zoom;
+            mTolerance2 = tolerance * tolerance;
+            mKept = new double[64];
+            mWindow = new double[MAX_WINDOW * 2];
+        }
+
+
+        public void add(
+                double x,
+                double y)
+        {
+            if (mKeptCount == 0) {
+                keep(x, y);
+                return;
+            }
+
+            if (mWindowCount == MAX_WINDOW || !isWithinTolerance(x, y)) {
+                // the previous point ends the segment and becomes the anchor
+                if (mWindowCount > 0) {
+                    keep(mWindow[mWindowCount * 2 - 2], mWindow[mWindowCount * 2 - 1]);
+                    mWindowCount = 0;
+                }
+            }
+
+            mWindow[mWindowCount * 2] = x;
+            mWindow[mWindowCount * 2 + 1] = y;
+            mWindowCount++;
+        }
+
+
+        protected boolean isWithinTolerance(
+                double x,
+                double y)
+        {
+            double ax = mKept[mKeptCount * 2 - 2];
+            double ay = mKept[mKeptCount * 2 - 1];
+            double dx = x - ax;
+            double dy = y - ay;
+            double length2 = dx * dx + dy * dy;
+
+            for (int i = 0; i < mWindowCount; i++) {
+                double px = mWindow[i * 2] - ax;
+                double py = mWindow[i * 2 + 1] - ay;
+                double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                if (ex * ex + ey * ey > mTolerance2)
+                    return false;
+            }
+
+            return true;
+        }
+
+
+        protected void keep(
+                double x,
+                double y)
+        {
+            if (mKept.length < mKeptCount * 2 + 2)
+                mKept = Arrays.copyOf(mKept, mKept.length * 2);
+
+            mKept[mKeptCount * 2] = x;
+            mKept[mKeptCount * 2 + 1] = y;
+            mKeptCount++;
+        }
+
+
+        public int getCount()
+        {
+            return mKeptCount + (mWindowCount > 0 ? 1 : 0);
+        }
+
+
+        public double[] getVertices()
+        {
+            double[] vertices = Arrays.copyOf(mKept, getCount() * 2);
+            if (mWindowCount > 0) {
+                vertices[mKeptCount * 2] = mWindow[mWindowCount * 2 - 2];
+                vertices[mKeptCount * 2 + 1] = mWindow[mWindowCount * 2 - 1];
+            }
+
+            return vertices;
+        }
+
+
+        public void reset()
+        {
+            mKeptCount = 0;
+            mWindowCount = 0;
+        }
+    }
+}
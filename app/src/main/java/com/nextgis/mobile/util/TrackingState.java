@@ -0,0 +1,185 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.mobile.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextgis.maplibui.service.TrackerService.hasUnfinishedTracks;
+import static com.nextgis.maplibui.service.TrackerService.isTrackerServiceRunning;
+
+
+/**
+ * Track recording state kept in memory and in preferences, so the menu does not scan the tracks
+ * table and the running services on every update. The state is set by the track actions and
+ * checked against the tracks layer and the tracker service in background on refresh, which
+ * catches recordings stopped from the notification or lost with the process.
+ */
+public class TrackingState
+{
+    public static final int STATE_IDLE       = 0;
+    public static final int STATE_RECORDING  = 1;
+    public static final int STATE_UNFINISHED = 2;
+
+    protected static final String KEY_PREF_TRACKING_STATE = "tracking_state";
+
+    protected static TrackingState sInstance;
+
+    protected final Context                      mContext;
+    protected final SharedPreferences            mPreferences;
+    protected final Handler                      mHandler;
+    protected final List<OnStateChangedListener> mListeners;
+    protected volatile int                       mState;
+    protected boolean                            mRefreshing;
+    // bumped by the track actions, a refresh started before is outdated
+    protected int                                mVersion;
+
+
+    public interface OnStateChangedListener
+    {
+        void onTrackingStateChanged(int state);
+    }
+
+
+    public static synchronized TrackingState getInstance(Context context)
+    {
+        if (null == sInstance) {
+            sInstance = new TrackingState(context.getApplicationContext());
+            sInstance.refresh(); // the stored state could be left by a previous process
+        }
+
+        return sInstance;
+    }
+
+
+    protected TrackingState(Context context)
+    {
+        mContext = context;
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        mHandler = new Handler(Looper.getMainLooper());
+        mListeners = new ArrayList<>();
+        mState = mPreferences.getInt(KEY_PREF_TRACKING_STATE, STATE_IDLE);
+    }
+
+
+    public int getState()
+    {
+        return mState;
+    }
+
+
+    public boolean isRecording()
+    {
+        return mState == STATE_RECORDING;
+    }
+
+
+    /**
+     * @return true if a track is being recorded or was not closed
+     */
+    public boolean hasUnfinishedTracks()
+    {
+        return mState != STATE_IDLE;
+    }
+
+
+    /**
+     * Should be called on the main thread
+     */
+    public void setState(int state)
+    {
+        synchronized (this) {
+            mVersion++;
+        }
+        applyState(state);
+    }
+
+
+    protected void applyState(int state)
+    {
+        if (mState == state)
+            return;
+
+        mState = state;
+        mPreferences.edit().putInt(KEY_PREF_TRACKING_STATE, state).commit();
+        for (OnStateChangedListener listener : new ArrayList<>(mListeners)) {
+            listener.onTrackingStateChanged(state);
+        }
+    }
+
+
+    /**
+     * Check the state against the tracker service and the tracks layer in background
+     */
+    public synchronized void refresh()
+    {
+        if (mRefreshing)
+            return;
+
+        mRefreshing = true;
+        final int version = mVersion;
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final int state = isTrackerServiceRunning(mContext) ? STATE_RECORDING :
+                        hasUnfinishedTracks(mContext) ? STATE_UNFINISHED : STATE_IDLE;
+
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        synchronized (TrackingState.this) {
+                            mRefreshing = false;
+                            if (version != mVersion)
+                                return;
+                        }
+                        applyState(state);
+                    }
+                });
+            }
+        }).start();
+    }
+
+
+    public void addListener(OnStateChangedListener listener)
+    {
+        if (!mListeners.contains(listener))
+            mListeners.add(listener);
+    }
+
+
+    public void removeListener(OnStateChangedListener listener)
+    {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class EditStateJournalTest
+        extends TestCase
+{
+    protected File mFile;
+
+
+    @Override
+    protected void setUp()
+            throws Exception
+    {
+        mFile = File.createTempFile("edit_state", ".journal");
+        assertTrue(mFile.delete());
+    }
+
+
+    @Override
+    protected void tearDown()
+            throws Exception
+    {
+        mFile.delete();
+    }
+
+
+    public void testAppendAndRead()
+    {
+        EditStateJournal journal = new EditStateJournal(mFile);
+        byte[] first = createData(1000, 1);
+        byte[] second = createData(50, 2);
+        long firstHandle = journal.append(first);
+        long secondHandle = journal.append(second);
+
+        assertTrue(firstHandle != EditStateJournal.NO_HANDLE);
+        assertTrue(firstHandle != secondHandle);
+        assertTrue(Arrays.equals(first, journal.read(firstHandle)));
+        assertTrue(Arrays.equals(second, journal.read(secondHandle)));
+        assertNull(journal.read(EditStateJournal.NO_HANDLE));
+        assertNull(journal.read(secondHandle + 1));
+    }
+
+
+    public void testSameDataSameHandle()
+    {
+        EditStateJournal journal = new EditStateJournal(mFile);
+        byte[] data = createData(100, 1);
+        long handle = journal.append(data);
+        assertEquals(handle, journal.append(data.clone()));
+        assertTrue(handle != journal.append(createData(100, 2)));
+    }
+
+
+    public void testReopen()
+    {
+        byte[] small = createData(1000, 1);
+        byte[] large = createData(3 * 1024 * 1024, 2);
+        EditStateJournal journal = new EditStateJournal(mFile);
+        long smallHandle = journal.append(small);
+        long largeHandle = journal.append(large);
+
+        EditStateJournal reopened = new EditStateJournal(mFile);
+        assertTrue(Arrays.equals(small, reopened.read(smallHandle)));
+        assertTrue(Arrays.equals(large, reopened.read(largeHandle)));
+
+        // appends go after the existing records
+        byte[] next = createData(10, 3);
+        long nextHandle = reopened.append(next);
+        assertTrue(Arrays.equals(large, reopened.read(largeHandle)));
+        assertTrue(Arrays.equals(next, new EditStateJournal(mFile).read(nextHandle)));
+    }
+
+
+    public void testTornRecord()
+            throws Exception
+    {
+        EditStateJournal journal = new EditStateJournal(mFile);
+        long first = journal.append(createData(100, 1));
+        long second = journal.append(createData(100, 2));
+
+        // damage the data of the second record
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek((int) second + EditStateJournal.RECORD_HEADER);
+        file.write(0xFF ^ createData(100, 2)[0]);
+        file.close();
+
+        EditStateJournal reopened = new EditStateJournal(mFile);
+        assertNotNull(reopened.read(first));
+        assertNull(reopened.read(second));
+    }
+
+
+    public void testNewGeneration()
+    {
+        EditStateJournal journal = new EditStateJournal(mFile);
+        long first = journal.append(createData(100, 1));
+
+        byte[] large = createData(3 * 1024 * 1024, 2);
+        long last = EditStateJournal.NO_HANDLE;
+        for (int i = 0; i < 8; i++) {
+            large[0] = (byte) i;
+            last = journal.append(large);
+        }
+
+        assertNull(journal.read(first));
+        assertTrue(Arrays.equals(large, journal.read(last)));
+        assertTrue(Arrays.equals(large, new EditStateJournal(mFile).read(last)));
+        assertTrue(mFile.length() <= EditStateJournal.MAX_SIZE);
+    }
+
+
+    public void testClear()
+    {
+        EditStateJournal journal = new EditStateJournal(mFile);
+        long small = journal.append(createData(100, 1));
+        long large = journal.append(createData(3 * 1024 * 1024, 2));
+        assertTrue(mFile.length() > EditStateJournal.MIN_SIZE);
+
+        journal.clear();
+        assertEquals(EditStateJournal.MIN_SIZE, mFile.length());
+        assertNull(journal.read(small));
+        assertNull(journal.read(large));
+
+        byte[] data = createData(100, 1);
+        long handle = journal.append(data);
+        assertTrue(handle != small);
+        assertTrue(Arrays.equals(data, journal.read(handle)));
+
+        EditStateJournal reopened = new EditStateJournal(mFile);
+        assertNull(reopened.read(small));
+        assertTrue(Arrays.equals(data, reopened.read(handle)));
+    }
+
+
+    public void testClearWithoutFile()
+    {
+        new EditStateJournal(mFile).clear();
+        assertFalse(mFile.exists());
+    }
+
+
+    protected static byte[] createData(
+            int size,
+            long seed)
+    {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
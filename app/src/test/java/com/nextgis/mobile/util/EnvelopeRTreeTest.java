@@ -0,0 +1,205 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+public class EnvelopeRTreeTest
+        extends TestCase
+{
+    public void testEmpty()
+    {
+        EnvelopeRTree tree = new EnvelopeRTree();
+        assertTrue(query(tree, -1e9, -1e9, 1e9, 1e9).isEmpty());
+
+        tree.insert(1, 0, 0, 1, 1);
+        assertEquals(set(1), query(tree, 0.5, 0.5, 0.5, 0.5));
+        tree.remove(1);
+        assertTrue(query(tree, -1e9, -1e9, 1e9, 1e9).isEmpty());
+    }
+
+
+    public void testBulkLoad()
+    {
+        Random random = new Random(1);
+        Map<Long, double[]> boxes = createBoxes(random, 5000);
+        EnvelopeRTree tree = createTree(boxes);
+
+        for (int i = 0; i < 200; i++) {
+            double[] window = createBox(random, 100);
+            assertEquals(bruteForce(boxes, window), query(tree, window));
+        }
+    }
+
+
+    public void testEdgeContact()
+    {
+        EnvelopeRTree tree = new EnvelopeRTree(new long[] {1, 2}, new double[] {0, 0, 1, 1, 5, 5, 5, 5}, 2);
+        assertEquals(set(1), query(tree, 1, 1, 2, 2));
+        assertEquals(set(2), query(tree, 5, 5, 5, 5));
+        assertTrue(query(tree, 1.5, 1.5, 4.5, 4.5).isEmpty());
+    }
+
+
+    public void testUpdates()
+    {
+        Random random = new Random(2);
+        Map<Long, double[]> boxes = createBoxes(random, 2000);
+        EnvelopeRTree tree = createTree(boxes);
+
+        long nextId = boxes.size();
+        for (int step = 0; step < 3000; step++) {
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                // a new feature
+                double[] box = createBox(random, 10);
+                boxes.put(nextId, box);
+                tree.insert(nextId++, box[0], box[1], box[2], box[3]);
+            } else if (operation == 1 && !boxes.isEmpty()) {
+                // a moved feature
+                long id = random.nextInt((int) nextId);
+                if (boxes.containsKey(id)) {
+                    double[] box = createBox(random, 10);
+                    boxes.put(id, box);
+                    tree.insert(id, box[0], box[1], box[2], box[3]);
+                }
+            } else {
+                long id = random.nextInt((int) nextId);
+                boxes.remove(id);
+                tree.remove(id);
+            }
+
+            if (step % 100 == 0) {
+                double[] window = createBox(random, 200);
+                assertEquals(bruteForce(boxes, window), query(tree, window));
+            }
+        }
+
+        assertEquals(boxes.keySet(), query(tree, -1e9, -1e9, 1e9, 1e9));
+    }
+
+
+    protected static Set<Long> query(
+            EnvelopeRTree tree,
+            double[] window)
+    {
+        return query(tree, window[0], window[1], window[2], window[3]);
+    }
+
+
+    protected static Set<Long> query(
+            EnvelopeRTree tree,
+            double minX,
+            double minY,
+            double maxX,
+            double maxY)
+    {
+        final Set<Long> hits = new HashSet<>();
+        tree.query(minX, minY, maxX, maxY, new EnvelopeRTree.Visitor()
+        {
+            @Override
+            public void onHit(
+                    long id,
+                    double minX,
+                    double minY,
+                    double maxX,
+                    double maxY)
+            {
+                assertTrue("reported twice: " + id, hits.add(id));
+            }
+        });
+
+        return hits;
+    }
+
+
+    protected static Set<Long> bruteForce(
+            Map<Long, double[]> boxes,
+            double[] window)
+    {
+        Set<Long> hits = new HashSet<>();
+        for (Map.Entry<Long, double[]> entry : boxes.entrySet()) {
+            if (EnvelopeRTree.intersects(entry.getValue(), 0, window[0], window[1], window[2], window[3]))
+                hits.add(entry.getKey());
+        }
+
+        return hits;
+    }
+
+
+    protected static EnvelopeRTree createTree(Map<Long, double[]> boxes)
+    {
+        long[] ids = new long[boxes.size()];
+        double[] values = new double[boxes.size() * 4];
+        int count = 0;
+        for (Map.Entry<Long, double[]> entry : boxes.entrySet()) {
+            ids[count] = entry.getKey();
+            System.arraycopy(entry.getValue(), 0, values, count * 4, 4);
+            count++;
+        }
+
+        return new EnvelopeRTree(ids, values, count);
+    }
+
+
+    protected static Map<Long, double[]> createBoxes(
+            Random random,
+            int count)
+    {
+        Map<Long, double[]> boxes = new HashMap<>();
+        for (long id = 0; id < count; id++) {
+            boxes.put(id, createBox(random, random.nextInt(10) == 0 ? 0 : 10));
+        }
+
+        return boxes;
+    }
+
+
+    protected static double[] createBox(
+            Random random,
+            double size)
+    {
+        double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+        return new double[] {x, y, x + random.nextDouble() * size, y + random.nextDouble() * size};
+    }
+
+
+    protected static Set<Long> set(long... ids)
+    {
+        Set<Long> set = new HashSet<>();
+        for (long id : ids) {
+            set.add(id);
+        }
+
+        return set;
+    }
+}
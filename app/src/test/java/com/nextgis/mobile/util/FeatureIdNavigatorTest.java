@@ -0,0 +1,234 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.util.Constants;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+
+public class FeatureIdNavigatorTest
+        extends TestCase
+{
+    // the navigator counts features in its constructor, before the fields of a subclass are set
+    protected static long[] sIds;
+    protected static int    sCountQueries;
+
+
+    @Override
+    protected void setUp()
+            throws Exception
+    {
+        sIds = new long[100];
+        for (int i = 0; i < sIds.length; i++) {
+            sIds[i] = i * 3 + 1;
+        }
+        sCountQueries = 0;
+    }
+
+
+    public void testMoveTo()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        assertEquals(100, navigator.getCount());
+        assertEquals(Constants.NOT_FOUND, navigator.getCurrentId());
+        assertFalse(navigator.hasNext());
+
+        navigator.moveTo(sIds[40]);
+        assertEquals(sIds[40], navigator.getCurrentId());
+        assertEquals(40, navigator.getPosition());
+        assertTrue(navigator.hasNext());
+        assertTrue(navigator.hasPrevious());
+    }
+
+
+    public void testWalkForward()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[0]);
+        assertFalse(navigator.hasPrevious());
+        assertEquals(Constants.NOT_FOUND, navigator.previous());
+
+        for (int i = 1; i < sIds.length; i++) {
+            assertTrue(navigator.hasNext());
+            assertEquals(sIds[i], navigator.next());
+            assertEquals(i, navigator.getPosition());
+        }
+
+        assertFalse(navigator.hasNext());
+        assertEquals(Constants.NOT_FOUND, navigator.next());
+        assertEquals(sIds[sIds.length - 1], navigator.getCurrentId());
+    }
+
+
+    public void testWalkBackward()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[sIds.length - 1]);
+        assertFalse(navigator.hasNext());
+
+        for (int i = sIds.length - 2; i >= 0; i--) {
+            assertEquals(sIds[i], navigator.previous());
+            assertEquals(i, navigator.getPosition());
+        }
+
+        assertFalse(navigator.hasPrevious());
+        assertEquals(Constants.NOT_FOUND, navigator.previous());
+    }
+
+
+    public void testPeek()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[50]);
+
+        long[] ids = new long[3];
+        assertEquals(3, navigator.peek(true, ids));
+        assertTrue(Arrays.equals(new long[] {sIds[51], sIds[52], sIds[53]}, ids));
+        assertEquals(3, navigator.peek(false, ids));
+        assertTrue(Arrays.equals(new long[] {sIds[49], sIds[48], sIds[47]}, ids));
+    }
+
+
+    public void testCountCached()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[10]);
+        int queries = sCountQueries;
+        for (int i = 0; i < 10; i++) {
+            navigator.getCount();
+            navigator.hasNext();
+            navigator.getPosition();
+        }
+        assertEquals(queries, sCountQueries);
+    }
+
+
+    public void testMoveWithinWindow()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[40]);
+        int queries = sCountQueries;
+
+        navigator.moveTo(sIds[45]);
+        assertEquals(sIds[45], navigator.getCurrentId());
+        assertEquals(45, navigator.getPosition());
+        navigator.moveTo(sIds[30]);
+        assertEquals(30, navigator.getPosition());
+        assertEquals(sIds[29], navigator.previous());
+        assertEquals(queries, sCountQueries);
+
+        navigator.moveTo(sIds[90]); // out of the window
+        assertEquals(90, navigator.getPosition());
+        assertEquals(queries + 1, sCountQueries);
+        assertEquals(sIds[91], navigator.next());
+    }
+
+
+    public void testLayerChanged()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[10]);
+        long current = sIds[10];
+
+        // features before the current one are deleted
+        sIds = Arrays.copyOfRange(sIds, 5, sIds.length);
+        navigator.onChange(false);
+        assertEquals(95, navigator.getCount());
+        assertEquals(5, navigator.getPosition());
+        assertEquals(current, navigator.getCurrentId());
+        assertEquals(sIds[6], navigator.next());
+    }
+
+
+    public void testLastFeatureDeleted()
+    {
+        FeatureIdNavigator navigator = new TestNavigator();
+        navigator.moveTo(sIds[sIds.length - 2]);
+        assertTrue(navigator.hasNext());
+
+        sIds = Arrays.copyOf(sIds, sIds.length - 1);
+        navigator.onChange(false);
+        assertFalse(navigator.hasNext());
+    }
+
+
+    /**
+     * Serves the static identifier list instead of a layer
+     */
+    protected static class TestNavigator
+            extends FeatureIdNavigator
+    {
+        public TestNavigator()
+        {
+            super(null);
+        }
+
+
+        @Override
+        protected int queryIds(
+                long from,
+                boolean forward,
+                int offset,
+                int limit)
+        {
+            int count = 0;
+            if (forward) {
+                for (int i = 0; i < sIds.length && count < limit; i++) {
+                    if (sIds[i] > from)
+                        mWindow[offset + count++] = sIds[i];
+                }
+            } else {
+                for (int i = sIds.length - 1; i >= 0 && count < limit; i--) {
+                    if (sIds[i] < from)
+                        mWindow[offset + count++] = sIds[i];
+                }
+            }
+
+            return count;
+        }
+
+
+        @Override
+        protected int queryCount(
+                String selection,
+                String[] selectionArgs)
+        {
+            sCountQueries++;
+            if (null == selection)
+                return sIds.length;
+
+            long before = Long.parseLong(selectionArgs[0]);
+            int count = 0;
+            while (count < sIds.length && sIds[count] < before) {
+                count++;
+            }
+
+            return count;
+        }
+    }
+}
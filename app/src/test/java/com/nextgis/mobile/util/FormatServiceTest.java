@@ -0,0 +1,92 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import junit.framework.TestCase;
+
+import java.util.Locale;
+
+
+public class FormatServiceTest
+        extends TestCase
+{
+    protected FormatService.Formats mFormats;
+
+
+    @Override
+    protected void setUp()
+            throws Exception
+    {
+        mFormats = new FormatService.Formats(Locale.US);
+    }
+
+
+    public void testFixed()
+    {
+        assertEquals("37.617635", format(37.6176354, 6));
+        assertEquals("-122.4", format(-122.41, 1));
+        assertEquals("0.0", format(-0.04, 1));
+        assertEquals("5", format(4.6, 0));
+        assertEquals("0.000000001", format(1e-9, 9));
+    }
+
+
+    public void testNegativeFraction()
+    {
+        assertEquals("5", format(4.6, -3));
+    }
+
+
+    public void testLongFraction()
+    {
+        assertEquals("55.7558140000", format(55.755814, 10));
+        assertEquals("55.755814000000000000", format(55.755814, 18));
+        assertEquals("-1.00000000000", format(-1, 11));
+    }
+
+
+    public void testLocaleSeparator()
+    {
+        FormatService.Formats formats = new FormatService.Formats(Locale.GERMANY);
+        assertEquals("37,62", FormatService.appendFixed(new StringBuilder(), 37.6176, 2, formats).toString());
+        assertEquals("37,6176000000",
+                FormatService.appendFixed(new StringBuilder(), 37.6176, 10, formats).toString());
+    }
+
+
+    public void testNotFinite()
+    {
+        assertEquals("NaN", format(Double.NaN, 3));
+        assertEquals("Infinity", format(Double.POSITIVE_INFINITY, 3));
+    }
+
+
+    protected String format(
+            double value,
+            int fraction)
+    {
+        return FormatService.appendFixed(new StringBuilder(), value, fraction, mFormats).toString();
+    }
+}
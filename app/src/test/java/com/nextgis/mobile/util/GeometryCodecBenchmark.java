@@ -0,0 +1,318 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoGeometryFactory;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Encode and decode timings of the app geometry blobs against the library serialization on point,
+ * line and polygon data. Every pass is warmed up first, the median of the timed runs goes to the
+ * standard output.
+ */
+public class GeometryCodecBenchmark
+        extends TestCase
+{
+    protected static final int VERTEX_COUNT = 10000;
+    protected static final int WARMUP_RUNS  = 10;
+    protected static final int RUNS         = 20;
+
+    protected static int sSink; // keeps the results alive
+
+
+    public void testEncode()
+            throws Exception
+    {
+        for (Corpus corpus : createCorpora()) {
+            long legacy = measure(LEGACY_ENCODE, corpus.mGeometries, null);
+            long codec = measure(CODEC_ENCODE, corpus.mGeometries, null);
+
+            report("encode", corpus, "legacy " + format(legacy) + ", " + corpus.getSize(corpus.mLegacy) +
+                    " bytes; codec " + format(codec) + ", " + corpus.getSize(corpus.mEncoded) + " bytes");
+            assertTrue(corpus.getSize(corpus.mEncoded) < corpus.getSize(corpus.mLegacy));
+        }
+    }
+
+
+    public void testDecode()
+            throws Exception
+    {
+        for (Corpus corpus : createCorpora()) {
+            for (int i = 0; i < corpus.mGeometries.size(); i++) {
+                String wkt = corpus.mGeometries.get(i).toWKT(true);
+                assertEquals(wkt, GeoGeometryFactory.fromBlob(corpus.mLegacy.get(i)).toWKT(true));
+                assertEquals(wkt, GeometryCodec.fromBlob(corpus.mEncoded.get(i)).toWKT(true));
+            }
+
+            long legacy = measure(LEGACY_DECODE, null, corpus.mLegacy);
+            long codec = measure(CODEC_DECODE, null, corpus.mEncoded);
+            long envelope = measure(CODEC_ENVELOPE, null, corpus.mEncoded);
+
+            report("decode", corpus, "legacy " + format(legacy) + "; codec " + format(codec) +
+                    "; envelope only " + format(envelope));
+        }
+    }
+
+
+    /**
+     * @return the median time of a pass over the geometries or blobs, nanoseconds
+     */
+    protected static long measure(
+            Operation operation,
+            List<GeoGeometry> geometries,
+            List<byte[]> blobs)
+            throws Exception
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run(operation, geometries, blobs);
+        }
+
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run(operation, geometries, blobs);
+            times[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+
+    protected static void run(
+            Operation operation,
+            List<GeoGeometry> geometries,
+            List<byte[]> blobs)
+            throws Exception
+    {
+        int count = null == geometries ? blobs.size() : geometries.size();
+        for (int i = 0; i < count; i++) {
+            Object result = null == geometries ?
+                    operation.run(null, blobs.get(i)) : operation.run(geometries.get(i), null);
+            sSink ^= System.identityHashCode(result);
+        }
+    }
+
+
+    protected static void report(
+            String name,
+            Corpus corpus,
+            String result)
+    {
+        System.out.println(String.format(Locale.US, "%s %s (%d geometries, %d vertices): %s", name,
+                corpus.mName, corpus.mGeometries.size(), VERTEX_COUNT, result));
+    }
+
+
+    protected static String format(long nanos)
+    {
+        return String.format(Locale.US, "%.3f ms", nanos / 1e6);
+    }
+
+
+    protected static List<Corpus> createCorpora()
+            throws Exception
+    {
+        List<GeoGeometry> points = new ArrayList<>();
+        for (GeoPoint point : createTrack(VERTEX_COUNT).getPoints()) {
+            points.add(point);
+        }
+
+        List<GeoGeometry> lines = new ArrayList<>();
+        lines.add(createTrack(VERTEX_COUNT));
+
+        List<GeoGeometry> polygons = new ArrayList<>();
+        polygons.add(createPolygon(VERTEX_COUNT));
+
+        List<Corpus> corpora = new ArrayList<>();
+        corpora.add(new Corpus("point", points));
+        corpora.add(new Corpus("line", lines));
+        corpora.add(new Corpus("polygon", polygons));
+        return corpora;
+    }
+
+
+    /**
+     * A GPS track in Web Mercator rounded to centimeters, the common case of the app data
+     */
+    protected static GeoLineString createTrack(int count)
+    {
+        GeoLineString line = new GeoLineString();
+        long x = 418761914, y = 750919052;
+        for (int i = 0; i < count; i++) {
+            x += Math.round(Math.cos(i * 0.01) * 500);
+            y += Math.round(Math.sin(i * 0.013) * 500);
+            line.add(new GeoPoint(x / 100.0, y / 100.0));
+        }
+        return line;
+    }
+
+
+    /**
+     * A walked parcel with a hole, the vertices split between the rings, centimeter precision
+     */
+    protected static GeoPolygon createPolygon(int count)
+    {
+        GeoPolygon polygon = new GeoPolygon();
+        for (GeoPoint point : createCircle(count * 9 / 10, 100000).getPoints()) {
+            polygon.add(point);
+        }
+        polygon.addInnerRing(createCircle(count / 10, 20000));
+        return polygon;
+    }
+
+
+    protected static GeoLinearRing createCircle(
+            int count,
+            long radius)
+    {
+        GeoLinearRing ring = new GeoLinearRing();
+        long x = 418761914, y = 750919052;
+        for (int i = 0; i < count; i++) {
+            double angle = Math.PI * 2 * i / count;
+            ring.add(new GeoPoint((x + Math.round(Math.cos(angle) * radius)) / 100.0,
+                    (y + Math.round(Math.sin(angle) * radius)) / 100.0));
+        }
+        ring.add(new GeoPoint(ring.getPoints().get(0).getX(), ring.getPoints().get(0).getY()));
+        return ring;
+    }
+
+
+    protected static class Corpus
+    {
+        protected final String            mName;
+        protected final List<GeoGeometry> mGeometries;
+        protected final List<byte[]>      mLegacy;
+        protected final List<byte[]>      mEncoded;
+
+
+        public Corpus(
+                String name,
+                List<GeoGeometry> geometries)
+                throws Exception
+        {
+            mName = name;
+            mGeometries = geometries;
+            mLegacy = new ArrayList<>(geometries.size());
+            mEncoded = new ArrayList<>(geometries.size());
+            for (GeoGeometry geometry : geometries) {
+                mLegacy.add(geometry.toBlob());
+                mEncoded.add(GeometryCodec.toBlob(geometry));
+            }
+        }
+
+
+        public long getSize(List<byte[]> blobs)
+        {
+            long size = 0;
+            for (byte[] blob : blobs) {
+                size += blob.length;
+            }
+            return size;
+        }
+    }
+
+
+    protected interface Operation
+    {
+        Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception;
+    }
+
+
+    protected static final Operation LEGACY_ENCODE = new Operation()
+    {
+        @Override
+        public Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception
+        {
+            return geometry.toBlob();
+        }
+    };
+
+    protected static final Operation CODEC_ENCODE = new Operation()
+    {
+        @Override
+        public Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception
+        {
+            return GeometryCodec.toBlob(geometry);
+        }
+    };
+
+    protected static final Operation LEGACY_DECODE = new Operation()
+    {
+        @Override
+        public Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception
+        {
+            return GeoGeometryFactory.fromBlob(blob);
+        }
+    };
+
+    protected static final Operation CODEC_DECODE = new Operation()
+    {
+        @Override
+        public Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception
+        {
+            return GeometryCodec.fromBlob(blob);
+        }
+    };
+
+    protected static final Operation CODEC_ENVELOPE = new Operation()
+    {
+        @Override
+        public Object run(
+                GeoGeometry geometry,
+                byte[] blob)
+                throws Exception
+        {
+            return GeometryCodec.readEnvelope(blob);
+        }
+    };
+}
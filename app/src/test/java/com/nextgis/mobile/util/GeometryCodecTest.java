@@ -0,0 +1,251 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiLineString;
+import com.nextgis.maplib.datasource.GeoMultiPoint;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import junit.framework.TestCase;
+
+
+public class GeometryCodecTest
+        extends TestCase
+{
+    public void testPointRoundTrip()
+            throws Exception
+    {
+        assertRoundTrip(new GeoPoint(37.61, 55.75));
+        assertRoundTrip(new GeoPoint(-4187619.14, 7509190.52));
+    }
+
+
+    public void testLineRoundTrip()
+            throws Exception
+    {
+        assertRoundTrip(createLine(100, 0, 0));
+        assertRoundTrip(createRing(4, 10, 10));
+    }
+
+
+    public void testPolygonRoundTrip()
+            throws Exception
+    {
+        GeoPolygon polygon = new GeoPolygon();
+        for (GeoPoint point : createRing(8, 0, 0).getPoints()) {
+            polygon.add(point);
+        }
+        polygon.addInnerRing(createRing(4, 1, 1));
+        polygon.addInnerRing(createRing(4, -1, -1));
+        assertRoundTrip(polygon);
+    }
+
+
+    public void testCollectionRoundTrip()
+            throws Exception
+    {
+        GeoMultiPoint points = new GeoMultiPoint();
+        points.add(new GeoPoint(1, 2));
+        points.add(new GeoPoint(-3.5, 4.25));
+        assertRoundTrip(points);
+
+        GeoMultiLineString lines = new GeoMultiLineString();
+        lines.add(createLine(10, 0, 0));
+        lines.add(createLine(5, 100, -100));
+        assertRoundTrip(lines);
+
+        GeoMultiPolygon polygons = new GeoMultiPolygon();
+        for (int i = 0; i < 3; i++) {
+            GeoPolygon polygon = new GeoPolygon();
+            for (GeoPoint point : createRing(6, i * 10, 0).getPoints()) {
+                polygon.add(point);
+            }
+            polygons.add(polygon);
+        }
+        assertRoundTrip(polygons);
+    }
+
+
+    public void testCRSRoundTrip()
+            throws Exception
+    {
+        GeoLineString line = createLine(3, 0, 0);
+        line.setCRS(3857);
+        GeoGeometry decoded = GeometryCodec.fromBlob(GeometryCodec.toBlob(line));
+        assertEquals(3857, decoded.getCRS());
+    }
+
+
+    public void testPrecisionSelection()
+    {
+        assertEquals(0, getPrecision(new GeoPoint(10, -20)));
+        assertEquals(2, getPrecision(new GeoPoint(37.61, 55.75)));
+        assertEquals(6, getPrecision(new GeoPoint(37.617635, 55.755814)));
+
+        GeoLineString line = new GeoLineString();
+        line.add(new GeoPoint(1, 2));
+        line.add(new GeoPoint(1.5, 2));
+        line.add(new GeoPoint(1.125, 2));
+        assertEquals(3, getPrecision(line));
+    }
+
+
+    public void testRawFallback()
+            throws Exception
+    {
+        GeoLineString line = new GeoLineString();
+        line.add(new GeoPoint(0, 0));
+        line.add(new GeoPoint(Math.PI, Math.E));
+        line.add(new GeoPoint(1e-12, -1e300));
+        byte[] blob = GeometryCodec.toBlob(line);
+        assertEquals(GeometryCodec.PRECISION_RAW, blob[3]);
+        assertRoundTrip(line);
+    }
+
+
+    public void testExplicitPrecision()
+            throws Exception
+    {
+        GeoPoint point = new GeoPoint(37.6176354, 55.7558141);
+        byte[] blob = GeometryCodec.toBlob(point, 3);
+        assertEquals(3, blob[3]);
+
+        GeoPoint decoded = (GeoPoint) GeometryCodec.fromBlob(blob);
+        assertEquals(37.618, decoded.getX(), 1e-9);
+        assertEquals(55.756, decoded.getY(), 1e-9);
+
+        assertEquals(GeometryCodec.PRECISION_RAW, GeometryCodec.toBlob(point, -1)[3]);
+        assertEquals(GeometryCodec.MAX_PRECISION, GeometryCodec.toBlob(point, 20)[3]);
+    }
+
+
+    public void testEncodedIsSmaller()
+            throws Exception
+    {
+        GeoLineString line = createLine(1000, 4187619.14, 7509190.52);
+        assertTrue(GeometryCodec.toBlob(line).length < line.toBlob().length);
+    }
+
+
+    public void testReadEnvelope()
+    {
+        GeoLineString line = new GeoLineString();
+        line.add(new GeoPoint(-1.5, 3));
+        line.add(new GeoPoint(4, -2.25));
+        line.add(new GeoPoint(2, 8));
+
+        GeoEnvelope envelope = GeometryCodec.readEnvelope(GeometryCodec.toBlob(line));
+        assertNotNull(envelope);
+        assertEquals(-1.5, envelope.getMinX(), 0);
+        assertEquals(4, envelope.getMaxX(), 0);
+        assertEquals(-2.25, envelope.getMinY(), 0);
+        assertEquals(8, envelope.getMaxY(), 0);
+
+        assertNull(GeometryCodec.readEnvelope(new byte[] {'N', 'G', 1, 2, 0, 2, 5}));
+    }
+
+
+    public void testIsEncoded()
+            throws Exception
+    {
+        assertTrue(GeometryCodec.isEncoded(GeometryCodec.toBlob(new GeoPoint(1, 1))));
+        assertFalse(GeometryCodec.isEncoded(new GeoPoint(1, 1).toBlob()));
+        assertFalse(GeometryCodec.isEncoded(new byte[] {'N', 'G'}));
+        assertFalse(GeometryCodec.isEncoded(null));
+    }
+
+
+    public void testLegacyBlob()
+            throws Exception
+    {
+        GeoLineString line = createLine(10, 0, 0);
+        GeoGeometry decoded = GeometryCodec.fromBlob(line.toBlob());
+        assertEquals(line.toWKT(true), decoded.toWKT(true));
+    }
+
+
+    public void testBrokenBlob()
+    {
+        byte[] blob = GeometryCodec.toBlob(createLine(10, 0, 0));
+        byte[] broken = new byte[blob.length / 2];
+        System.arraycopy(blob, 0, broken, 0, broken.length);
+
+        try {
+            GeometryCodec.fromBlob(broken);
+            fail("broken blob is read");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+
+    protected static int getPrecision(GeoGeometry geometry)
+    {
+        return GeometryCodec.toBlob(geometry)[3];
+    }
+
+
+    protected static void assertRoundTrip(GeoGeometry geometry)
+            throws Exception
+    {
+        GeoGeometry decoded = GeometryCodec.fromBlob(GeometryCodec.toBlob(geometry));
+        assertEquals(geometry.getType(), decoded.getType());
+        assertEquals(geometry.toWKT(true), decoded.toWKT(true));
+    }
+
+
+    protected static GeoLineString createLine(
+            int count,
+            double x,
+            double y)
+    {
+        GeoLineString line = new GeoLineString();
+        for (int i = 0; i < count; i++) {
+            line.add(new GeoPoint(x + i * 0.37, y + Math.sin(i) * 10));
+        }
+        return line;
+    }
+
+
+    protected static GeoLinearRing createRing(
+            int count,
+            double x,
+            double y)
+    {
+        GeoLinearRing ring = new GeoLinearRing();
+        for (int i = 0; i < count; i++) {
+            double angle = Math.PI * 2 * i / count;
+            ring.add(new GeoPoint(x + Math.cos(angle) * 0.5, y + Math.sin(angle) * 0.5));
+        }
+        ring.add(new GeoPoint(ring.getPoints().get(0).getX(), ring.getPoints().get(0).getY()));
+        return ring;
+    }
+}
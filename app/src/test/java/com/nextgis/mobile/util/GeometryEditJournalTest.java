@@ -0,0 +1,290 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiPoint;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class GeometryEditJournalTest
+        extends TestCase
+{
+    public void testMoveVertex()
+    {
+        GeoLineString line = createLine(10);
+        String before = line.toWKT(true);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(line);
+        assertFalse(journal.canUndo());
+
+        line.getPoints().get(5).setCoordinates(100, 100);
+        String after = line.toWKT(true);
+        journal.record(line);
+        assertTrue(journal.canUndo());
+
+        assertSame(line, journal.undo(line));
+        assertEquals(before, line.toWKT(true));
+        assertTrue(journal.canRedo());
+
+        assertSame(line, journal.redo(line));
+        assertEquals(after, line.toWKT(true));
+        assertFalse(journal.canRedo());
+    }
+
+
+    public void testStepKeepsChangeOnly()
+    {
+        GeoLineString line = createLine(10000);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(line);
+
+        line.getPoints().get(5000).setCoordinates(-1, -1);
+        journal.record(line);
+        assertEquals(4, journal.mSize);
+
+        line.getPoints().add(100, new GeoPoint(-2, -2));
+        journal.record(line);
+        assertEquals(6, journal.mSize);
+
+        assertNull(journal.mUndo.getLast().mBefore);
+    }
+
+
+    public void testInsertAndRemoveVertex()
+    {
+        GeoLineString line = createLine(10);
+        String initial = line.toWKT(true);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(line);
+
+        line.getPoints().add(3, new GeoPoint(50, 50));
+        journal.record(line);
+        String inserted = line.toWKT(true);
+        line.getPoints().remove(7);
+        line.getPoints().remove(7);
+        journal.record(line);
+
+        journal.undo(line);
+        assertEquals(inserted, line.toWKT(true));
+        journal.undo(line);
+        assertEquals(initial, line.toWKT(true));
+        assertNull(journal.undo(line));
+    }
+
+
+    public void testPartsChange()
+    {
+        GeoPolygon polygon = new GeoPolygon();
+        for (GeoPoint point : createLine(5).getPoints()) {
+            polygon.add(point);
+        }
+        String before = polygon.toWKT(true);
+
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(polygon);
+
+        GeoLinearRing hole = new GeoLinearRing();
+        hole.add(new GeoPoint(1, 1));
+        hole.add(new GeoPoint(2, 1));
+        hole.add(new GeoPoint(2, 2));
+        polygon.addInnerRing(hole);
+        String after = polygon.toWKT(true);
+        journal.record(polygon);
+
+        GeoGeometry undone = journal.undo(polygon);
+        assertNotNull(undone);
+        assertEquals(before, undone.toWKT(true));
+        assertTrue(journal.isTracking(undone));
+
+        GeoGeometry redone = journal.redo(undone);
+        assertEquals(after, redone.toWKT(true));
+
+        // vertex steps keep working on the new object
+        ((GeoPolygon) redone).getInnerRing(0).getPoints().get(0).setCoordinates(1.5, 1.5);
+        journal.record(redone);
+        assertSame(redone, journal.undo(redone));
+        assertEquals(after, redone.toWKT(true));
+    }
+
+
+    public void testMultiPoint()
+    {
+        GeoMultiPoint points = new GeoMultiPoint();
+        points.add(new GeoPoint(1, 1));
+        String before = points.toWKT(true);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(points);
+
+        points.add(new GeoPoint(2, 2));
+        journal.record(points);
+        ((GeoPoint) points.get(0)).setCoordinates(3, 3);
+        journal.record(points);
+
+        GeoGeometry geometry = journal.undo(points);
+        geometry = journal.undo(geometry);
+        assertEquals(before, geometry.toWKT(true));
+    }
+
+
+    public void testNewEditDropsRedo()
+    {
+        GeoLineString line = createLine(5);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(line);
+        line.getPoints().get(0).setCoordinates(10, 10);
+        journal.record(line);
+        journal.undo(line);
+        assertTrue(journal.canRedo());
+
+        line.getPoints().get(1).setCoordinates(20, 20);
+        journal.record(line);
+        assertFalse(journal.canRedo());
+        assertNull(journal.redo(line));
+    }
+
+
+    public void testBudget()
+    {
+        GeoLineString line = createLine(5);
+        String initial = line.toWKT(true);
+        GeometryEditJournal journal = new GeometryEditJournal(16);
+        journal.record(line);
+        for (int i = 0; i < 10; i++) {
+            line.getPoints().get(2).setCoordinates(i, -i);
+            journal.record(line);
+        }
+
+        // moves of one vertex are merged, the first position is kept
+        assertTrue(journal.mUndo.size() < 10);
+        assertTrue(journal.mSize <= 16);
+        while (journal.canUndo()) {
+            journal.undo(line);
+        }
+        assertEquals(initial, line.toWKT(true));
+    }
+
+
+    public void testOtherGeometryResets()
+    {
+        GeoLineString line = createLine(5);
+        GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+        journal.record(line);
+        line.getPoints().get(0).setCoordinates(10, 10);
+        journal.record(line);
+
+        GeoLineString other = createLine(5);
+        journal.record(other);
+        assertTrue(journal.isTracking(other));
+        assertFalse(journal.canUndo());
+    }
+
+
+    public void testRandomEdits()
+    {
+        Random random = new Random(3);
+        for (int test = 0; test < 100; test++) {
+            GeoGeometry geometry = new GeoPolygon();
+            for (int i = 0; i < 6; i++) {
+                ((GeoPolygon) geometry).add(new GeoPoint(i, i * i));
+            }
+
+            GeometryEditJournal journal = new GeometryEditJournal(GeometryEditJournal.DEFAULT_BUDGET);
+            journal.record(geometry);
+            List<String> states = new ArrayList<>();
+            states.add(geometry.toWKT(true));
+            int position = 0;
+
+            for (int step = 0; step < 40; step++) {
+                int operation = random.nextInt(6);
+                if (operation <= 2) {
+                    GeoPolygon polygon = (GeoPolygon) geometry;
+                    List<GeoPoint> points = polygon.getOuterRing().getPoints();
+                    int vertex = random.nextInt(points.size());
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            points.get(vertex).setCoordinates(random.nextInt(50), random.nextInt(50));
+                            break;
+                        case 1:
+                            points.add(vertex, new GeoPoint(random.nextInt(50), random.nextInt(50)));
+                            break;
+                        case 2:
+                            if (points.size() > 3)
+                                points.remove(vertex);
+                            break;
+                        default:
+                            GeoLinearRing ring = new GeoLinearRing();
+                            ring.add(new GeoPoint(1, 1));
+                            ring.add(new GeoPoint(2, 1));
+                            polygon.addInnerRing(ring);
+                    }
+
+                    journal.record(geometry);
+                    String state = geometry.toWKT(true);
+                    if (!state.equals(states.get(position))) {
+                        while (states.size() > position + 1) {
+                            states.remove(states.size() - 1);
+                        }
+                        states.add(state);
+                        position++;
+                    }
+                } else if (operation <= 4) {
+                    GeoGeometry undone = journal.undo(geometry);
+                    if (null != undone) {
+                        geometry = undone;
+                        position--;
+                        assertEquals(states.get(position), geometry.toWKT(true));
+                    }
+                } else {
+                    GeoGeometry redone = journal.redo(geometry);
+                    if (null != redone) {
+                        geometry = redone;
+                        position++;
+                        assertEquals(states.get(position), geometry.toWKT(true));
+                    }
+                }
+            }
+        }
+    }
+
+
+    protected static GeoLineString createLine(int count)
+    {
+        GeoLineString line = new GeoLineString();
+        for (int i = 0; i < count; i++) {
+            line.add(new GeoPoint(i, i * 0.5));
+        }
+        return line;
+    }
+}
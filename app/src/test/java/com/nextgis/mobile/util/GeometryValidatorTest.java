@@ -0,0 +1,197 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import junit.framework.TestCase;
+
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_NONE;
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_RING_OUTSIDE;
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_SELF_INTERSECTION;
+
+
+public class GeometryValidatorTest
+        extends TestCase
+{
+    protected static final double[] SQUARE = {0, 0, 10, 0, 10, 10, 0, 10, 0, 0};
+
+
+    public void testSimple()
+    {
+        assertError(ERROR_NONE, createPolygon(SQUARE));
+        assertError(ERROR_NONE, createPolygon(new double[] {0, 0, 10, 0, 10, 0, 10, 10, 0, 10}));
+    }
+
+
+    public void testSelfIntersection()
+    {
+        GeometryValidator.Result result =
+                GeometryValidator.validate(createPolygon(new double[] {0, 0, 10, 10, 10, 0, 0, 10}), null);
+        assertEquals(ERROR_SELF_INTERSECTION, result.getError());
+        assertEquals(0, result.getPolygon());
+        assertEquals(0, result.getRing());
+        assertNotNull(result.getSegment());
+
+        // a spike folding back over itself and a ring touching itself
+        assertError(ERROR_SELF_INTERSECTION, createPolygon(new double[] {0, 0, 10, 0, 5, 0, 5, 5}));
+        assertError(ERROR_SELF_INTERSECTION,
+                createPolygon(new double[] {0, 0, 10, 0, 5, 5, 10, 10, 0, 10, 5, 5}));
+    }
+
+
+    public void testHoles()
+    {
+        assertError(ERROR_NONE, createPolygon(SQUARE, new double[] {2, 2, 4, 2, 4, 4}));
+        assertError(ERROR_NONE,
+                createPolygon(SQUARE, new double[] {2, 2, 4, 2, 4, 4}, new double[] {6, 6, 8, 6, 8, 8}));
+
+        GeometryValidator.Result result = GeometryValidator.validate(
+                createPolygon(SQUARE, new double[] {2, 2, 4, 2, 4, 4}, new double[] {12, 2, 14, 2, 14, 4}),
+                null);
+        assertEquals(ERROR_RING_OUTSIDE, result.getError());
+        assertEquals(2, result.getRing());
+
+        assertError(ERROR_SELF_INTERSECTION, createPolygon(SQUARE, new double[] {8, 2, 14, 2, 14, 4}));
+        assertError(ERROR_SELF_INTERSECTION,
+                createPolygon(SQUARE, new double[] {2, 2, 6, 2, 6, 6}, new double[] {4, 1, 8, 1, 8, 4}));
+    }
+
+
+    public void testHoleTouches()
+    {
+        // a hole vertex on a shell edge, on a shell vertex, and two holes sharing a vertex
+        assertError(ERROR_NONE, createPolygon(SQUARE, new double[] {0, 5, 4, 4, 4, 6}));
+        assertError(ERROR_NONE, createPolygon(SQUARE, new double[] {0, 0, 4, 2, 2, 4}));
+        assertError(ERROR_NONE,
+                createPolygon(SQUARE, new double[] {2, 2, 5, 5, 2, 5}, new double[] {5, 5, 8, 5, 8, 8}));
+    }
+
+
+    public void testHoleTouchesOutside()
+    {
+        // the first hole vertex lies on the shell, the rest outside
+        assertError(ERROR_RING_OUTSIDE, createPolygon(SQUARE, new double[] {10, 5, 14, 4, 14, 6}));
+    }
+
+
+    public void testHoleCrossesAtVertex()
+    {
+        // the hole passes through the shell edge at its vertex
+        assertError(ERROR_SELF_INTERSECTION, createPolygon(SQUARE, new double[] {10, 5, 8, 2, 14, 2}));
+        // and shares a piece of the shell edge
+        assertError(ERROR_SELF_INTERSECTION, createPolygon(SQUARE, new double[] {0, 2, 0, 6, 4, 4}));
+    }
+
+
+    public void testMultiPolygon()
+    {
+        GeoMultiPolygon touching = new GeoMultiPolygon();
+        touching.add(createPolygon(SQUARE));
+        touching.add(createPolygon(new double[] {10, 10, 20, 10, 20, 20, 10, 20}));
+        assertError(ERROR_NONE, touching);
+
+        GeoMultiPolygon crossing = new GeoMultiPolygon();
+        crossing.add(createPolygon(SQUARE));
+        crossing.add(createPolygon(new double[] {5, 5, 20, 5, 20, 20, 5, 20}));
+        GeometryValidator.Result result = GeometryValidator.validate(crossing, null);
+        assertEquals(ERROR_SELF_INTERSECTION, result.getError());
+    }
+
+
+    public void testLargeRing()
+    {
+        GeoPolygon polygon = new GeoPolygon();
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            double angle = Math.PI * 2 * i / count;
+            double radius = 1000 + Math.sin(i * 0.37) * 50;
+            polygon.add(new GeoPoint(radius * Math.cos(angle), radius * Math.sin(angle)));
+        }
+
+        assertEquals(count, GeometryValidator.getVertexCount(polygon));
+        assertError(ERROR_NONE, polygon);
+    }
+
+
+    public void testCancel()
+    {
+        GeometryValidator.ProgressListener listener = new GeometryValidator.ProgressListener()
+        {
+            @Override
+            public void onProgress(
+                    int done,
+                    int total)
+            {
+            }
+
+
+            @Override
+            public boolean isCanceled()
+            {
+                return true;
+            }
+        };
+
+        assertNull(GeometryValidator.validate(createPolygon(SQUARE), listener));
+    }
+
+
+    protected static void assertError(
+            int error,
+            GeoPolygon polygon)
+    {
+        GeometryValidator.Result result = GeometryValidator.validate(polygon, null);
+        assertEquals(error, result.getError());
+        assertEquals(error == ERROR_NONE, result.isValid());
+    }
+
+
+    protected static void assertError(
+            int error,
+            GeoMultiPolygon polygon)
+    {
+        assertEquals(error, GeometryValidator.validate(polygon, null).getError());
+    }
+
+
+    protected static GeoPolygon createPolygon(double[]... rings)
+    {
+        GeoPolygon polygon = new GeoPolygon();
+        for (int i = 0; i < rings.length; i++) {
+            GeoLinearRing ring = i == 0 ? polygon.getOuterRing() : new GeoLinearRing();
+            for (int j = 0; j < rings[i].length; j += 2) {
+                ring.add(new GeoPoint(rings[i][j], rings[i][j + 1]));
+            }
+            if (i > 0)
+                polygon.addInnerRing(ring);
+        }
+
+        return polygon;
+    }
+}
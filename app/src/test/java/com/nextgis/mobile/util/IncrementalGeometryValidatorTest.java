@@ -0,0 +1,172 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_NONE;
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_RING_OUTSIDE;
+import static com.nextgis.mobile.util.GeometryValidator.ERROR_SELF_INTERSECTION;
+
+
+public class IncrementalGeometryValidatorTest
+        extends TestCase
+{
+    public void testDragVertex()
+    {
+        GeoPolygon polygon = GeometryValidatorTest.createPolygon(GeometryValidatorTest.SQUARE,
+                new double[] {2, 2, 4, 2, 4, 4});
+        IncrementalGeometryValidator validator = new IncrementalGeometryValidator();
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+        assertTrue(validator.isTracking(polygon));
+
+        GeoPoint point = polygon.getInnerRing(0).getPoints().get(1);
+        point.setCoordinates(10, 2); // touches the shell
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+        point.setCoordinates(12, 2);
+        assertEquals(ERROR_SELF_INTERSECTION, validator.update(polygon).getError());
+        point.setCoordinates(4, 2);
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+    }
+
+
+    public void testTouchTurnsIntoCrossing()
+    {
+        // the hole touches the shell at (10, 5) and (10, 1), its vertex between them moves out and
+        // back, the edges at the touch points on the other side stay
+        GeoPolygon polygon = GeometryValidatorTest.createPolygon(GeometryValidatorTest.SQUARE,
+                new double[] {10, 5, 12, 3, 10, 1, 6, 3});
+        IncrementalGeometryValidator validator = new IncrementalGeometryValidator();
+        assertEquals(ERROR_SELF_INTERSECTION, validator.update(polygon).getError());
+
+        GeoPoint point = polygon.getInnerRing(0).getPoints().get(1);
+        point.setCoordinates(8, 3);
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+        point.setCoordinates(12, 3);
+        assertEquals(ERROR_SELF_INTERSECTION, validator.update(polygon).getError());
+        point.setCoordinates(8, 3);
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+    }
+
+
+    public void testHoleMovedOutside()
+    {
+        GeoPolygon polygon = GeometryValidatorTest.createPolygon(GeometryValidatorTest.SQUARE,
+                new double[] {2, 2, 4, 2, 4, 4});
+        IncrementalGeometryValidator validator = new IncrementalGeometryValidator();
+        validator.update(polygon);
+
+        GeoMultiPolygon other = new GeoMultiPolygon();
+        other.add(GeometryValidatorTest.createPolygon(GeometryValidatorTest.SQUARE,
+                new double[] {12, 2, 14, 2, 14, 4}));
+        assertEquals(ERROR_RING_OUTSIDE, validator.update(other).getError());
+        assertTrue(validator.isTracking(other));
+    }
+
+
+    public void testLongEdgeOverDenseRing()
+    {
+        // a zigzag of short edges closed by two long ones, the closing diagonal envelope spans
+        // about 3 * 10^7 grid cells
+        int count = 40000, far = count;
+        GeoPolygon polygon = new GeoPolygon();
+        for (int k = 0; k < count; k++) {
+            polygon.add(new GeoPoint(k, -(k % 2)));
+        }
+        polygon.add(new GeoPoint(count, far));
+
+        IncrementalGeometryValidator validator = new IncrementalGeometryValidator();
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+
+        GeoPoint point = polygon.getOuterRing().getPoints().get(count / 2);
+        point.setCoordinates(count / 2, far); // crosses the diagonal
+        assertEquals(ERROR_SELF_INTERSECTION, validator.update(polygon).getError());
+        point.setCoordinates(count / 2, 0);
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+
+        GeoPoint corner = polygon.getOuterRing().getPoints().get(count);
+        corner.setCoordinates(count / 4, -10); // both long edges now cross the zigzag
+        assertEquals(ERROR_SELF_INTERSECTION, validator.update(polygon).getError());
+        corner.setCoordinates(count, far + 10);
+        assertEquals(ERROR_NONE, validator.update(polygon).getError());
+        assertEquals(GeometryValidator.validate(polygon, null).getError(),
+                validator.getResult().getError());
+    }
+
+
+    public void testMatchesFullValidation()
+    {
+        Random random = new Random(7);
+        for (int test = 0; test < 200; test++) {
+            GeoMultiPolygon multiPolygon = new GeoMultiPolygon();
+            int parts = 1 + random.nextInt(2);
+            for (int part = 0; part < parts; part++) {
+                GeoPolygon polygon = new GeoPolygon();
+                int count = 4 + random.nextInt(20);
+                for (int i = 0; i < count; i++) {
+                    double angle = Math.PI * 2 * i / count;
+                    double radius = 10 + random.nextInt(5);
+                    polygon.add(new GeoPoint(part * 40 + Math.round(radius * Math.cos(angle)),
+                            Math.round(radius * Math.sin(angle))));
+                }
+
+                if (random.nextBoolean()) {
+                    GeoLinearRing hole = new GeoLinearRing();
+                    hole.add(new GeoPoint(part * 40 - 2, -2));
+                    hole.add(new GeoPoint(part * 40 + 2, -2));
+                    hole.add(new GeoPoint(part * 40, 2));
+                    polygon.addInnerRing(hole);
+                }
+                multiPolygon.add(polygon);
+            }
+
+            IncrementalGeometryValidator validator = new IncrementalGeometryValidator();
+            for (int step = 0; step < 50; step++) {
+                GeoPolygon polygon = (GeoPolygon) multiPolygon.get(random.nextInt(parts));
+                GeoLinearRing ring = random.nextInt(4) == 0 && polygon.getInnerRingCount() > 0 ?
+                        polygon.getInnerRing(0) : polygon.getOuterRing();
+                List<GeoPoint> points = ring.getPoints();
+                GeoPoint point = points.get(random.nextInt(points.size()));
+                double x = point.getX() + random.nextInt(7) - 3;
+                double y = point.getY() + random.nextInt(7) - 3;
+                if (random.nextInt(10) == 0)
+                    ring.add(new GeoPoint(x, y));
+                else
+                    point.setCoordinates(x, y);
+
+                assertEquals(GeometryValidator.validate(multiPolygon, null).getError(),
+                        validator.update(multiPolygon).getError());
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2012-2016 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.mobile.util;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class TrackSimplifierTest
+        extends TestCase
+{
+    public void testStraightLine()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(15);
+        for (int i = 0; i < 100; i++) {
+            simplifier.add(37 + i * 0.0001, 55);
+        }
+
+        assertEquals(100, simplifier.getPointCount());
+        assertEquals(2, simplifier.getVertexCount(0));
+    }
+
+
+    public void testLongStraightLine()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(15);
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            simplifier.add(37 + i * 0.00001, 55);
+        }
+
+        // the window bound splits a long run, but not much
+        assertTrue(simplifier.getVertexCount(0) <= count / TrackSimplifier.MAX_WINDOW + 2);
+    }
+
+
+    public void testEndsKept()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_ZOOMS);
+        double[] track = createTrack(new Random(1), 500);
+        for (int i = 0; i < track.length; i += 2) {
+            simplifier.add(track[i], track[i + 1]);
+        }
+
+        double[] first = project(track[0], track[1]);
+        double[] last = project(track[track.length - 2], track[track.length - 1]);
+        for (int level = 0; level < simplifier.getLevelCount(); level++) {
+            double[] vertices = simplifier.getVertices(level);
+            assertEquals(simplifier.getVertexCount(level) * 2, vertices.length);
+            assertEquals(first[0], vertices[0], 0);
+            assertEquals(first[1], vertices[1], 0);
+            assertEquals(last[0], vertices[vertices.length - 2], 0);
+            assertEquals(last[1], vertices[vertices.length - 1], 0);
+        }
+    }
+
+
+    public void testDeviationWithinTolerance()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_ZOOMS);
+        double[] track = createTrack(new Random(2), 5000);
+        double[] projected = new double[track.length];
+        for (int i = 0; i < track.length; i += 2) {
+            simplifier.add(track[i], track[i + 1]);
+            double[] point = project(track[i], track[i + 1]);
+            projected[i] = point[0];
+            projected[i + 1] = point[1];
+        }
+
+        int previousCount = Integer.MAX_VALUE;
+        for (int level = 0; level < simplifier.getLevelCount(); level++) {
+            int zoom = simplifier.getZoom(level);
+            double tolerance = Math.PI * TrackSimplifier.EARTH_RADIUS /
+                    (TrackSimplifier.TILE_SIZE * Math.pow(2, zoom));
+            assertTrue(getMaxDeviation(projected, simplifier.getVertices(level)) <= tolerance * 1.000001);
+
+            // coarser levels keep fewer vertices
+            int count = simplifier.getVertexCount(level);
+            assertTrue(count <= previousCount);
+            assertTrue(count < simplifier.getPointCount());
+            previousCount = count;
+        }
+    }
+
+
+    public void testGetLevel()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_ZOOMS);
+        assertEquals(18, simplifier.getZoom(simplifier.getLevel(17.5f)));
+        assertEquals(15, simplifier.getZoom(simplifier.getLevel(15)));
+        assertEquals(12, simplifier.getZoom(simplifier.getLevel(10.2f)));
+        assertEquals(6, simplifier.getZoom(simplifier.getLevel(2)));
+        assertEquals(18, simplifier.getZoom(simplifier.getLevel(20)));
+    }
+
+
+    public void testReset()
+    {
+        TrackSimplifier simplifier = new TrackSimplifier(15);
+        simplifier.add(37, 55);
+        simplifier.add(37.001, 55.001);
+        simplifier.reset();
+        assertEquals(0, simplifier.getPointCount());
+        assertEquals(0, simplifier.getVertexCount(0));
+        assertEquals(0, simplifier.getVertices(0).length);
+
+        simplifier.add(38, 56);
+        assertEquals(1, simplifier.getVertexCount(0));
+    }
+
+
+    /**
+     * Distance of every track point from the part of the simplified line between the kept
+     * vertices around it. Kept vertices are track points, in track order.
+     */
+    protected static double getMaxDeviation(
+            double[] track,
+            double[] vertices)
+    {
+        double max = 0;
+        int vertex = 0;
+        for (int i = 0; i < track.length; i += 2) {
+            if (vertex * 2 < vertices.length && track[i] == vertices[vertex * 2] &&
+                    track[i + 1] == vertices[vertex * 2 + 1]) {
+                vertex++;
+                continue;
+            }
+
+            assertTrue(vertex > 0 && vertex * 2 < vertices.length);
+            max = Math.max(max, getDistance(track[i], track[i + 1], vertices[vertex * 2 - 2],
+                    vertices[vertex * 2 - 1], vertices[vertex * 2], vertices[vertex * 2 + 1]));
+        }
+
+        assertEquals(vertices.length / 2, vertex);
+        return max;
+    }
+
+
+    protected static double getDistance(
+            double px,
+            double py,
+            double ax,
+            double ay,
+            double bx,
+            double by)
+    {
+        double dx = bx - ax, dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 :
+                Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length2));
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+
+
+    protected static double[] project(
+            double lon,
+            double lat)
+    {
+        return new double[] {TrackSimplifier.EARTH_RADIUS * Math.toRadians(lon),
+                TrackSimplifier.EARTH_RADIUS *
+                        Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat) / 2))};
+    }
+
+
+    /**
+     * A walk with GPS noise, one fix a second
+     */
+    protected static double[] createTrack(
+            Random random,
+            int count)
+    {
+        double[] track = new double[count * 2];
+        double lon = 37.6, lat = 55.75, heading = 0;
+        for (int i = 0; i < count; i++) {
+            heading += random.nextGaussian() * 0.2;
+            lon += Math.cos(heading) * 0.00002 + random.nextGaussian() * 0.000002;
+            lat += Math.sin(heading) * 0.00001 + random.nextGaussian() * 0.000001;
+            track[i * 2] = lon;
+            track[i * 2 + 1] = lat;
+        }
+
+        return track;
+    }
+}